@@ -0,0 +1,79 @@
+package org.homio.hquery;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Curl.download against in-process HTTP server on loopback, so only client side overhead is measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CurlDownloadBenchmark {
+
+    @Param({"65536", "8388608"})
+    private int size;
+
+    private HttpServer server;
+    private String url;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        byte[] payload = new byte[size];
+        new Random(42).nextBytes(payload);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/payload.bin", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(payload);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/payload.bin";
+        target = Files.createTempDirectory("hquery-bench").resolve("payload.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.stop(0);
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(target.getParent());
+    }
+
+    @Benchmark
+    public long downloadToFile() throws Exception {
+        Curl.download(url, target);
+        return Files.size(target);
+    }
+
+    @Benchmark
+    public int downloadToMemory() {
+        return Curl.download(url).getBytes().length;
+    }
+}
@@ -0,0 +1,226 @@
+package org.homio.hquery;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.homio.hquery.api.ListParse;
+import org.homio.hquery.api.ListParse.BooleanLineParse;
+import org.homio.hquery.api.ListParse.LineParse;
+import org.homio.hquery.api.ListParse.LineParsers;
+import org.homio.hquery.api.RawParse;
+import org.homio.hquery.api.SplitParse;
+
+/**
+ * Copy of reflective output parsing of HQueryFactoryPostProcessor before parse programs were introduced. Kept only as
+ * baseline for ParseBenchmark, do not use it elsewhere.
+ */
+final class LegacyResultParser {
+
+    private LegacyResultParser() {
+    }
+
+    /**
+     * Same as successful branch of old handleCommandResult
+     */
+    static Object parse(Method method, List<String> inputs) throws Exception {
+        Class<?> returnType = method.getReturnType();
+        inputs = Collections.unmodifiableCollection(inputs).stream().map(String::trim).collect(Collectors.toList());
+
+        String joinedValue = String.join("", inputs);
+        if (returnType.isAssignableFrom(String.class)) {
+            return joinedValue;
+        }
+
+        if (returnType.isAssignableFrom(Integer.class)) {
+            return Integer.valueOf(joinedValue);
+        } else if (returnType.isAssignableFrom(Double.class)) {
+            return Double.parseDouble(joinedValue);
+        } else if (returnType.isAssignableFrom(Boolean.class)) {
+            return Boolean.parseBoolean(joinedValue);
+        }
+
+        if (method.isAnnotationPresent(ListParse.class)) {
+            ListParse listParse = method.getAnnotation(ListParse.class);
+            String delimiter = listParse.delimiter();
+            List<List<String>> buckets = new ArrayList<>();
+            List<String> currentBucket = null;
+
+            for (String input : inputs) {
+                if (input.matches(delimiter)) {
+                    currentBucket = new ArrayList<>();
+                    buckets.add(currentBucket);
+                }
+                if (currentBucket != null) {
+                    currentBucket.add(input);
+                }
+            }
+            Class<?> genericClass = listParse.clazz();
+            List<Object> result = new ArrayList<>();
+            for (List<String> bucket : buckets) {
+                result.add(handleBucket(bucket, genericClass));
+            }
+            return result;
+        } else if (method.isAnnotationPresent(LineParse.class)) {
+            return handleBucket(inputs, method.getDeclaredAnnotation(LineParse.class), null);
+        } else if (method.isAnnotationPresent(LineParsers.class)) {
+            return handleBucket(inputs, method.getAnnotation(LineParsers.class));
+        } else if (method.isAnnotationPresent(BooleanLineParse.class)) {
+            return handleBucket(inputs, method.getAnnotation(BooleanLineParse.class));
+        } else if (method.isAnnotationPresent(RawParse.class)) {
+            return handleBucket(inputs, method.getAnnotation(RawParse.class), null);
+        } else {
+            return handleBucket(inputs, returnType);
+        }
+    }
+
+    static Object handleBucket(List<String> input, Class<?> genericClass) throws Exception {
+        if (Collection.class.isAssignableFrom(genericClass)) {
+            if (List.class.isAssignableFrom(genericClass)) {
+                return input;
+            } else if (Set.class.isAssignableFrom(genericClass)) {
+                return new HashSet<>(input);
+            } else {
+                throw new IllegalStateException("Unsupported return type: " + genericClass.getSimpleName());
+            }
+        }
+
+        Object obj = newInstance(genericClass);
+
+        boolean handleFields = false;
+        SplitParse splitParse = genericClass.getDeclaredAnnotation(SplitParse.class);
+        if (splitParse != null) {
+            for (String item : input) {
+                String[] split = item.split(splitParse.value());
+                for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, SplitParse.SplitParseIndex.class)) {
+                    int splitIndex = field.getDeclaredAnnotation(SplitParse.SplitParseIndex.class).index();
+                    if (splitIndex >= 0 && splitIndex < split.length) {
+                        String value = split[splitIndex].trim();
+                        FieldUtils.writeField(field, obj, handleType(value, field.getType()), true);
+                        handleFields = true;
+                    }
+                }
+            }
+        }
+
+        for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, RawParse.class)) {
+            Object value = handleBucket(input, field.getDeclaredAnnotation(RawParse.class), field);
+            FieldUtils.writeField(field, obj, value, true);
+            handleFields = true;
+        }
+
+        for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, LineParse.class)) {
+            Object value = handleBucket(input, field.getDeclaredAnnotation(LineParse.class), field);
+            FieldUtils.writeField(field, obj, value, true);
+            handleFields = true;
+        }
+
+        for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, BooleanLineParse.class)) {
+            Object value = handleBucket(input, field.getDeclaredAnnotation(BooleanLineParse.class));
+            FieldUtils.writeField(field, obj, value, true);
+            handleFields = true;
+        }
+
+        List<Field> listFields = FieldUtils.getFieldsListWithAnnotation(genericClass, LineParsers.class);
+        for (Field field : listFields) {
+            LineParsers lineParsers = field.getDeclaredAnnotation(LineParsers.class);
+            Object value = handleBucket(input, lineParsers);
+            FieldUtils.writeField(field, obj, value, true);
+        }
+
+        if (!handleFields && listFields.isEmpty()) {
+            if (genericClass.isAssignableFrom(String.class)) {
+                return String.join("", input);
+            }
+        }
+        if (handleFields) {
+            return obj;
+        }
+
+        throw new IllegalStateException("Unsupported return type: " + genericClass.getSimpleName());
+    }
+
+    private static Object handleBucket(List<String> inputs, LineParse lineParse, Field field) {
+        for (String input : inputs) {
+            if (input.matches(lineParse.value())) {
+                String group = findGroup(input, lineParse.value(), lineParse.group());
+                if (group != null) {
+                    return handleType(group.replaceAll("\"", ""), field.getType());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Object handleBucket(List<String> inputs, RawParse rawParse, Field field) throws Exception {
+        return SystemUtils.IS_OS_WINDOWS ? newInstance(rawParse.win()).handle(inputs, field) :
+                newInstance(rawParse.nix()).handle(inputs, field);
+    }
+
+    private static Object handleType(String value, Class<?> type) {
+        if (type.isAssignableFrom(Integer.class)) {
+            return Integer.valueOf(value);
+        } else if (type.isAssignableFrom(Double.class)) {
+            return Double.parseDouble(value);
+        }
+
+        return value;
+    }
+
+    private static Object handleBucket(List<String> inputs, BooleanLineParse lineParse) {
+        for (String input : inputs) {
+            if (input.matches(lineParse.value())) {
+                String group = findGroup(input, lineParse.value(), lineParse.group());
+                if (group != null) {
+                    if (group.equals(lineParse.when())) {
+                        return !lineParse.inverse();
+                    }
+                }
+            }
+        }
+        if (!lineParse.when().isEmpty()) {
+            return lineParse.inverse();
+        }
+
+        return null;
+    }
+
+    private static Object handleBucket(List<String> inputs, LineParsers lineParsers) {
+        for (LineParse lineParse : lineParsers.value()) {
+            Object val = handleBucket(inputs, lineParse, null);
+            if (val != null) {
+                return val;
+            }
+        }
+        return null;
+    }
+
+    private static String findGroup(String input, String regexp, int group) {
+        Matcher m = Pattern.compile(regexp).matcher(input);
+        if (m.find()) {
+            return m.group(group);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newInstance(Class<T> clazz) throws Exception {
+        for (Constructor<?> constructor : clazz.getConstructors()) {
+            if (constructor.getParameterCount() == 0) {
+                constructor.setAccessible(true);
+                return (T) constructor.newInstance();
+            }
+        }
+        throw new IllegalArgumentException("Unable to find default constructor for class: " + clazz);
+    }
+}
@@ -0,0 +1,94 @@
+package org.homio.hquery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.homio.hquery.hardware.network.NetworkHardwareRepository;
+import org.homio.hquery.hardware.other.HardwareMemory;
+import org.homio.hquery.hardware.other.MachineHardwareRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of recorded command outputs into result objects: compiled parse programs vs reflective legacy parser
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"iwlist", "iwconfig", "ifconfig", "os-release", "df"})
+    private String output;
+
+    private List<String> lines;
+    // null for df, which has no repository method and is parsed by class
+    private Method method;
+    private HQueryParseProgram.ValueParser parser;
+
+    @Setup
+    public void setup() throws Exception {
+        lines = readOutput(output);
+        switch (output) {
+            case "iwlist" -> method = NetworkHardwareRepository.class.getMethod("scan", String.class);
+            case "iwconfig" -> method = NetworkHardwareRepository.class.getMethod("stat", String.class);
+            case "ifconfig" -> method = NetworkHardwareRepository.class.getMethod("getNetworkDescription", String.class);
+            case "os-release" -> method = MachineHardwareRepository.class.getMethod("getOs");
+            case "df" -> method = null;
+            default -> throw new IllegalArgumentException("Unknown output " + output);
+        }
+        if (method == null) {
+            parser = HQueryParseProgram.of(HardwareMemory.class)::parse;
+        } else {
+            parser = HQueryMethodPlan.build(method.getDeclaringClass(), method, null).getResultParser();
+        }
+        // both parsers must produce same result, otherwise comparison makes no sense
+        String current = String.valueOf(current());
+        String legacy = String.valueOf(legacy());
+        if (!Objects.equals(current, legacy)) {
+            throw new IllegalStateException("Parsers differ for " + output + ":\n" + current + "\n" + legacy);
+        }
+    }
+
+    @Benchmark
+    public Object current() {
+        List<String> trimmed = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            trimmed.add(line.trim());
+        }
+        return parser.parse(trimmed);
+    }
+
+    @Benchmark
+    public Object legacy() throws Exception {
+        if (method == null) {
+            return LegacyResultParser.handleBucket(lines.stream().map(String::trim).toList(), HardwareMemory.class);
+        }
+        return LegacyResultParser.parse(method, lines);
+    }
+
+    static List<String> readOutput(String name) throws IOException {
+        try (InputStream stream = ParseBenchmark.class.getResourceAsStream("/outputs/" + name + ".txt")) {
+            if (stream == null) {
+                throw new IllegalArgumentException("Missing recorded output " + name);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.homio.hquery;
+
+import java.util.concurrent.TimeUnit;
+import org.homio.hquery.bench.BenchRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Cost of repository proxy call when result is already cached: plan lookup, templating, cache lookup and result mapping
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyDispatchBenchmark {
+
+    private AnnotationConfigApplicationContext context;
+    private BenchRepository repository;
+
+    @Setup
+    public void setup() {
+        context = new AnnotationConfigApplicationContext(BenchConfiguration.class);
+        repository = context.getBean(BenchRepository.class);
+        // fill cache
+        repository.echo("hquery");
+        repository.test("hquery");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String cachedStringQuery() {
+        return repository.echo("hquery");
+    }
+
+    @Benchmark
+    public boolean cachedBooleanQuery() {
+        return repository.test("hquery");
+    }
+
+    @Benchmark
+    public String defaultMethod() {
+        return repository.constant();
+    }
+
+    @Configuration
+    // built-in repositories are required by prepare() of default HQueryExecutor
+    @EnableHQuery(scanBaseClassesPackage = "org.homio.hquery")
+    public static class BenchConfiguration {
+
+        @Bean
+        public HQueryLogger hQueryLogger() {
+            return new HQueryLogger() {
+                @Override
+                public void info(String message) {
+                }
+
+                @Override
+                public void error(String message) {
+                    System.err.println(message);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.homio.hquery;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Line splitting throughput of StreamReader, which drains process output
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamReaderBenchmark {
+
+    @Param({"100", "100000"})
+    private int lines;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        String iwlist = String.join("\n", ParseBenchmark.readOutput("iwlist")) + "\n";
+        StringBuilder text = new StringBuilder();
+        int count = 0;
+        while (count < lines) {
+            for (String line : iwlist.split("\n")) {
+                if (count++ == lines) {
+                    break;
+                }
+                text.append(line).append('\n');
+            }
+        }
+        payload = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        new StreamReader("bench", new ByteArrayInputStream(payload), blackhole::consume).run();
+    }
+}
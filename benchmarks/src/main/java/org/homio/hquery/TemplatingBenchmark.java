@@ -0,0 +1,54 @@
+package org.homio.hquery;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.homio.hquery.api.HardwareQuery;
+import org.homio.hquery.hardware.network.NetworkHardwareRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Command templating: :param substitution and ${property:default} resolution
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplatingBenchmark {
+
+    private static final Map<String, String> PROPERTIES = Map.of("hquery.bench.dir", "/opt/homio", "user.home", "/root");
+
+    private HQueryMethodPlan plan;
+    private String command;
+    private Object[] args;
+    private String envCommand;
+
+    @Setup
+    public void setup() throws Exception {
+        var method = NetworkHardwareRepository.class.getMethod("connect_open", String.class, String.class);
+        plan = HQueryMethodPlan.build(NetworkHardwareRepository.class, method, null);
+        command = method.getDeclaredAnnotationsByType(HardwareQuery.class)[0].value()[0];
+        args = new Object[]{"wlan0", "home-network"};
+        envCommand = "${hquery.bench.dir}/bin/run.sh --home ${user.home} --log ${hquery.bench.log:/var/log/hquery}";
+    }
+
+    @Benchmark
+    public String replaceStringWithArgs() {
+        return plan.replaceStringWithArgs(command, args);
+    }
+
+    @Benchmark
+    public String replaceValues() {
+        return HQueryFactoryPostProcessor.replaceValues(envCommand, PROPERTIES::getOrDefault);
+    }
+}
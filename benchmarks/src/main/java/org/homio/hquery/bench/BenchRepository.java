@@ -0,0 +1,19 @@
+package org.homio.hquery.bench;
+
+import org.homio.hquery.api.HQueryParam;
+import org.homio.hquery.api.HardwareQuery;
+import org.homio.hquery.api.HardwareRepository;
+
+@HardwareRepository(description = "Queries used by ProxyDispatchBenchmark")
+public interface BenchRepository {
+
+    @HardwareQuery(name = "Cached echo", value = "echo :value", cacheValid = 3600)
+    String echo(@HQueryParam("value") String value);
+
+    @HardwareQuery(name = "Cached exit code", value = "test -n :value", cacheValid = 3600)
+    boolean test(@HQueryParam("value") String value);
+
+    default String constant() {
+        return "constant";
+    }
+}
@@ -1,20 +1,24 @@
 package org.homio.hquery;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Nullable;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.*;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublisher;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscribers;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -23,19 +27,18 @@ import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
-import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
 import org.springframework.util.function.ThrowingBiFunction;
-import org.springframework.web.client.RestTemplate;
 
 @RequiredArgsConstructor
 @SuppressWarnings("unused")
@@ -44,58 +47,40 @@ public final class Curl {
     public static final int ONE_MB = 1000000;
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(10))
-            .build();
-
-    private static final RestTemplate restTemplate;
-
-    static {
-        restTemplate = new RestTemplateBuilder()
-                .setConnectTimeout(Duration.ofSeconds(10))
-                .setReadTimeout(Duration.ofSeconds(60))
-                .build();
-    }
 
     public static <T> T get(String url, Class<T> responseType, Object... uriVariables) {
-        return restTemplate.getForObject(url, responseType, uriVariables);
+        return CurlTransport.exchange("GET", url, null, typeOf(responseType), CurlTransport.DEFAULT_READ_TIMEOUT, uriVariables);
     }
 
     public static <T> List<T> getList(String url, Class<T> responseType, Object... uriVariables) {
-        return restTemplate.exchange(url,
-                HttpMethod.GET, null, listOf(responseType), uriVariables).getBody();
+        return CurlTransport.exchange("GET", url, null, listTypeOf(responseType), CurlTransport.DEFAULT_READ_TIMEOUT, uriVariables);
     }
 
     public static <T> T post(String url, Object request, Class<T> responseType,
                              Object... uriVariables) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<?> requestEntity = new HttpEntity<>(request, headers);
-
-        return restTemplate.postForObject(url, requestEntity, responseType, uriVariables);
+        return CurlTransport.exchange("POST", url, request, typeOf(responseType), CurlTransport.DEFAULT_READ_TIMEOUT, uriVariables);
     }
 
     public static <T> List<T> postList(String url, Object request, Class<T> responseType,
                              Object... uriVariables) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<?> requestEntity = new HttpEntity<>(request, headers);
-
-        return restTemplate.exchange(url,
-                HttpMethod.POST, requestEntity, listOf(responseType), uriVariables).getBody();
+        return CurlTransport.exchange("POST", url, request, listTypeOf(responseType), CurlTransport.DEFAULT_READ_TIMEOUT, uriVariables);
     }
 
     public static void delete(String url, Object... uriVariables) {
-        restTemplate.delete(url, uriVariables);
+        CurlTransport.exchange("DELETE", url, null, typeOf(Void.class), CurlTransport.DEFAULT_READ_TIMEOUT, uriVariables);
     }
 
-    @SneakyThrows
     public static void download(String url, Path targetPath) {
-        URLConnection connection = getUrlConnection(new URL(url));
-        Files.createDirectories(targetPath.getParent());
-        try (InputStream stream = connection.getInputStream()) {
-            Files.copy(stream, targetPath, StandardCopyOption.REPLACE_EXISTING);
-        }
+        download(url, targetPath, CurlDownloader.DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Download file using up to 'segments' concurrent Range requests if server supports them and file is big enough.
+     * Falls back to single stream otherwise. Target file is deleted if download fails.
+     */
+    @SneakyThrows
+    public static void download(String url, Path targetPath, int segments) {
+        CurlDownloader.download(new URL(url), targetPath, segments, null, url);
     }
 
     public static HttpRequest createPostRequest(String url) {
@@ -147,25 +132,84 @@ public final class Curl {
     }
 
     public static <T> void sendAsync(HttpRequest httpRequest, Class<T> responseType, BiConsumer<T, Integer> handler) {
-        HTTP_CLIENT.sendAsync(httpRequest, BodyHandlers.ofString()).thenAccept(response -> {
+        CurlTransport.client().sendAsync(httpRequest, ofJson(responseType)).thenAccept(response -> {
+            T value;
             try {
-                handler.accept(objectMapper.readValue(response.body(), responseType), response.statusCode());
-            } catch (JsonProcessingException ex) {
-                handler.accept(null, response.statusCode());
+                value = response.body().get();
+            } catch (UncheckedIOException ex) {
+                value = null;
             }
+            handler.accept(value, response.statusCode());
         });
     }
 
     @SneakyThrows
     public static <T> void sendSync(HttpRequest httpRequest, Class<T> responseType, BiConsumer<T, Integer> handler) {
-        HttpResponse<String> response = HTTP_CLIENT.send(httpRequest, BodyHandlers.ofString());
-        handler.accept(objectMapper.readValue(response.body(), responseType), response.statusCode());
+        HttpResponse<Supplier<T>> response = CurlTransport.client().send(httpRequest, ofJson(responseType));
+        handler.accept(readBody(response), response.statusCode());
     }
 
     @SneakyThrows
     public static <T, R> R sendSync(HttpRequest httpRequest, Class<T> responseType, ThrowingBiFunction<T, Integer, R> handler) {
-        HttpResponse<String> response = HTTP_CLIENT.send(httpRequest, BodyHandlers.ofString());
-        return handler.apply(objectMapper.readValue(response.body(), responseType), response.statusCode());
+        HttpResponse<Supplier<T>> response = CurlTransport.client().send(httpRequest, ofJson(responseType));
+        return handler.apply(readBody(response), response.statusCode());
+    }
+
+    /**
+     * Body handler that parses JSON directly from response stream, without reading body into String first. Body is
+     * parsed when supplier is called, so it does not block HttpClient threads. Supplier throws UncheckedIOException
+     * if body is not valid JSON of given type.
+     */
+    public static <T> BodyHandler<Supplier<T>> ofJson(Class<T> type) {
+        return responseInfo -> BodySubscribers.mapping(BodySubscribers.ofInputStream(), inputStream -> () -> {
+            try (InputStream stream = inputStream) {
+                return objectMapper.readValue(stream, type);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * Lazily read elements of top-level JSON array returned by url. Elements are parsed one by one while stream is
+     * consumed, so memory does not depend on response size. Stream must be closed to release connection if it is not
+     * consumed till the end.
+     */
+    public static <T> Stream<T> stream(String url, Class<T> elementType) {
+        return stream(createGetRequest(url), elementType);
+    }
+
+    @SneakyThrows
+    public static <T> Stream<T> stream(HttpRequest httpRequest, Class<T> elementType) {
+        HttpResponse<InputStream> response = CurlTransport.client().send(httpRequest, BodyHandlers.ofInputStream());
+        InputStream body = response.body();
+        try {
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                String message = new String(body.readNBytes(1024), StandardCharsets.UTF_8);
+                throw new IllegalStateException("Error while get <" + httpRequest.uri() + ">. Code: "
+                        + response.statusCode() + ". Msg: " + message);
+            }
+            // reader unwraps root array and closes body when last element is read
+            MappingIterator<T> iterator = objectMapper.readerFor(elementType).readValues(body);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                                .onClose(() -> {
+                                    try {
+                                        iterator.close();
+                                    } catch (IOException ignore) {
+                                    }
+                                });
+        } catch (IOException | RuntimeException ex) {
+            body.close();
+            throw ex;
+        }
+    }
+
+    private static <T> T readBody(HttpResponse<Supplier<T>> response) throws IOException {
+        try {
+            return response.body().get();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
     }
 
     @SneakyThrows
@@ -189,19 +233,12 @@ public final class Curl {
         String name = Paths.get(uri.getPath()).getFileName().toString();
         HttpResponse<InputStream> response;
         if (user == null || password == null) {
-            response = HTTP_CLIENT.send(request, BodyHandlers.ofInputStream());
+            response = CurlTransport.client().send(request, BodyHandlers.ofInputStream());
         } else {
-            request = HttpRequest.newBuilder().uri(request.uri()).POST(BodyPublishers.noBody()).build();
-            response = HttpClient.newBuilder()
-                    .authenticator(new Authenticator() {
-                        @Override
-                        protected PasswordAuthentication getPasswordAuthentication() {
-                            return new PasswordAuthentication(
-                                    user,
-                                    password.toCharArray());
-                        }
-                    }).build()
-                    .send(request, BodyHandlers.ofInputStream());
+            request = HttpRequest.newBuilder().uri(request.uri())
+                                 .header("Authorization", CurlTransport.basicAuthorization(user, password))
+                                 .POST(BodyPublishers.noBody()).build();
+            response = CurlTransport.client().send(request, BodyHandlers.ofInputStream());
             // 401 if wrong user/password
             if (response.statusCode() != 200) {
                 String body;
@@ -233,20 +270,52 @@ public final class Curl {
         return download(path, null, user, password);
     }
 
+    /**
+     * Download with SHA-256 computed while streaming. See downloadResumable(String, Path, ProgressBar, String, String)
+     */
+    public static DownloadResult downloadResumable(String url, Path targetPath, @Nullable ProgressBar progressBar) {
+        return downloadResumable(url, targetPath, progressBar, "SHA-256", null);
+    }
+
+    /**
+     * Download to targetPath.part and move it to targetPath when completed. If previous call was interrupted, download
+     * continues from existing .part when remote file has same ETag/Last-Modified, otherwise starts from zero. Broken
+     * transfer is retried few times; on final failure .part is kept for next call.
+     *
+     * @param algorithm      - MessageDigest algorithm, i.e. SHA-256
+     * @param expectedDigest - hex digest. If not null and not matched, .part is deleted and IllegalStateException thrown
+     */
     @SneakyThrows
+    public static DownloadResult downloadResumable(String url, Path targetPath, @Nullable ProgressBar progressBar,
+                                                   String algorithm, @Nullable String expectedDigest) {
+        URL source = new URL(url);
+        String fileName = url;
+        try {
+            fileName = Paths.get(source.getPath()).getFileName().toString();
+        } catch (Exception ignore) {
+        }
+        return CurlDownloader.downloadResumable(source, targetPath, algorithm, expectedDigest, progressBar, fileName);
+    }
+
     public static void downloadWithProgress(String urlStr, Path targetPath, ProgressBar progressBar) {
+        downloadWithProgress(urlStr, targetPath, progressBar, CurlDownloader.DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * @param segments - max number of concurrent Range requests. Progress of all segments is aggregated
+     */
+    @SneakyThrows
+    public static void downloadWithProgress(String urlStr, Path targetPath, ProgressBar progressBar, int segments) {
         progressBar.progress(1, "Checking file size...");
         Files.createDirectories(targetPath.getParent());
         Files.deleteIfExists(targetPath);
         URL url = new URL(urlStr);
-        int fileSize = getFileSize(url);
-        InputStream inputStream = getUrlConnection(url).getInputStream();
         String fileName = urlStr;
         try {
             fileName = Paths.get(url.getPath()).getFileName().toString();
         } catch (Exception ignore) {
         }
-        downloadWithProgress(inputStream, fileName, targetPath, progressBar, fileSize);
+        CurlDownloader.download(url, targetPath, segments, progressBar, fileName);
     }
 
     @SneakyThrows
@@ -256,22 +325,47 @@ public final class Curl {
             Files.copy(inputStream, targetPath, StandardCopyOption.REPLACE_EXISTING);
             return;
         }
-        int maxMb = (int) (fileSize / ONE_MB);
-        try (InputStream fileInputStream = new TransformFilterInputStream(inputStream, progressBar, fileSize, maxMb, fileName)) {
+        try (InputStream fileInputStream = new TransformFilterInputStream(inputStream, progressBar, fileSize, fileName)) {
             Files.copy(fileInputStream, targetPath);
         }
     }
 
-    @SneakyThrows
+    /**
+     * @param timeoutInSec - time to wait for response. Values up to 30 seconds use default 60 seconds timeout
+     */
     public static <T> T getWithTimeout(String url, Class<T> returnType, int timeoutInSec) {
-        if (timeoutInSec <= 30) {
-            return get(url, returnType);
+        int timeout = timeoutInSec <= 30 ? CurlTransport.DEFAULT_READ_TIMEOUT : timeoutInSec;
+        return CurlTransport.exchange("GET", url, null, typeOf(returnType), timeout);
+    }
+
+    /**
+     * Non-blocking variant of getWithTimeout. Future completes exceptionally if status is not 2xx or body can not be
+     * converted to returnType
+     */
+    public static <T> CompletableFuture<T> getAsync(String url, Class<T> returnType, int timeoutInSec) {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url))
+                                         .timeout(Duration.ofSeconds(Math.max(timeoutInSec, 1)))
+                                         .GET().build();
+        if (returnType.isAssignableFrom(String.class)) {
+            return CurlTransport.client().sendAsync(request, BodyHandlers.ofString()).thenApply(response -> {
+                if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                    throw new IllegalStateException("Error while get <" + url + ">. Code: " + response.statusCode()
+                            + ". Msg: " + response.body());
+                }
+                return returnType.cast(response.body());
+            });
         }
-        RestTemplate restTemplate = new RestTemplateBuilder()
-                .setConnectTimeout(Duration.ofSeconds(timeoutInSec))
-                .setReadTimeout(Duration.ofSeconds(timeoutInSec))
-                .build();
-        return restTemplate.getForObject(url, returnType);
+        return CurlTransport.client().sendAsync(request, BodyHandlers.ofInputStream()).thenApply(response -> {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                    throw new IllegalStateException("Error while get <" + url + ">. Code: " + response.statusCode()
+                            + ". Msg: " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                return objectMapper.readValue(body, returnType);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
     }
 
     @SneakyThrows
@@ -279,34 +373,37 @@ public final class Curl {
         return getFileSize(new URL(url));
     }
 
+    /**
+     * @return content length or -1 if unknown or exceeds int range. Use getFileSizeLong for files over 2GB
+     */
     public static int getFileSize(URL url) {
-        URLConnection conn = null;
-        try {
-            conn = url.openConnection();
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(10000);
-
-            if (conn instanceof HttpURLConnection) {
-                ((HttpURLConnection) conn).setRequestMethod("HEAD");
-            }
+        long size = getFileSizeLong(url);
+        return size > Integer.MAX_VALUE ? -1 : (int) size;
+    }
 
-            return conn.getContentLength();
+    public static long getFileSizeLong(URL url) {
+        try {
+            return CurlDownloader.head(url).size();
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            if (conn instanceof HttpURLConnection) {
-                ((HttpURLConnection) conn).disconnect();
-            }
         }
     }
 
-    private static URLConnection getUrlConnection(URL url) throws IOException {
+    static URLConnection getUrlConnection(URL url) throws IOException {
         URLConnection connection = url.openConnection();
         connection.setConnectTimeout(60000);
         connection.setReadTimeout(60000);
         return connection;
     }
 
+    private static JavaType typeOf(Class<?> type) {
+        return CurlTransport.REST_OBJECT_MAPPER.getTypeFactory().constructType(type);
+    }
+
+    private static JavaType listTypeOf(Class<?> type) {
+        return CurlTransport.REST_OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, type);
+    }
+
     public static <T> ParameterizedTypeReference<List<T>> listOf(final Class<T> type) {
         return new ParameterizedTypeReference<>() {
             @Override
@@ -348,32 +445,27 @@ public final class Curl {
         }
     }
 
+    /**
+     * @param digest      - hex digest of downloaded file
+     * @param resumedFrom - bytes taken from previous partial download
+     */
+    public record DownloadResult(Path path, long size, String algorithm, String digest, long resumedFrom) {}
+
     private static class TransformFilterInputStream extends FilterInputStream {
 
-        private final Consumer<Integer> progressHandler;
-        private int readBytes = 0;
+        private final CurlDownloader.Progress progress;
 
-        protected TransformFilterInputStream(InputStream in, ProgressBar progressBar, double fileSize, int maxMb, String fileName) {
+        protected TransformFilterInputStream(InputStream in, ProgressBar progressBar, long fileSize, String fileName) {
             super(in);
-            this.progressHandler = new Consumer<>() {
-                int nextStep = 1;
-
-                @Override
-                public void accept(Integer num) {
-                    readBytes += num;
-                    if (readBytes / (double) ONE_MB > nextStep) {
-                        nextStep++;
-                        double progress = (readBytes / fileSize * 100) * 0.99; // max 99%
-                        progressBar.progress(progress, "Downloading %s %dMb. of %d Mb.".formatted(fileName, readBytes / ONE_MB, maxMb));
-                    }
-                }
-            };
+            this.progress = new CurlDownloader.Progress(progressBar, fileName, fileSize);
         }
 
         @Override
         public int read(byte[] b, int off, int len) throws IOException {
             int read = super.read(b, off, len);
-            progressHandler.accept(read);
+            if (read > 0) {
+                progress.add(read);
+            }
             return read;
         }
     }
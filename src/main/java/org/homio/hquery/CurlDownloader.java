@@ -0,0 +1,429 @@
+package org.homio.hquery;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * File downloads of Curl. If server supports byte ranges and file is big enough, file is fetched by several concurrent
+ * Range requests, each writing to own region of preallocated file with positional FileChannel writes. Otherwise,
+ * or if server ignores Range header, file is downloaded by single stream. Resumable downloads are sequential, so
+ * digest can be computed while bytes are written.
+ */
+final class CurlDownloader {
+
+    static final int DEFAULT_SEGMENTS = 4;
+    // smaller segments are not worth extra connection
+    static final long MIN_SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RESUME_ATTEMPTS = 3;
+
+    private CurlDownloader() {
+    }
+
+    /**
+     * @param size - content length or -1 if unknown
+     * @param etag - ETag header or null
+     */
+    record RemoteFile(long size, boolean acceptRanges, @Nullable String etag, @Nullable String lastModified) {
+
+        int segmentCount(int maxSegments) {
+            if (!acceptRanges || size <= 0) {
+                return 1;
+            }
+            return (int) Math.max(1, Math.min(maxSegments, size / MIN_SEGMENT_SIZE));
+        }
+    }
+
+    static RemoteFile head(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(10000);
+        try {
+            if (connection instanceof HttpURLConnection http) {
+                http.setRequestMethod("HEAD");
+                if (http.getResponseCode() >= 400) {
+                    return new RemoteFile(-1, false, null, null);
+                }
+            }
+            return new RemoteFile(connection.getContentLengthLong(),
+                    "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges")),
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        } finally {
+            if (connection instanceof HttpURLConnection http) {
+                http.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @param progressBar - progress receiver or null
+     */
+    static void download(URL url, Path target, int maxSegments, @Nullable ProgressBar progressBar, String fileName)
+            throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        RemoteFile remoteFile = head(url);
+        int segments = remoteFile.segmentCount(maxSegments);
+        try {
+            if (segments > 1 && downloadSegments(url, target, remoteFile, segments, progressBar, fileName)) {
+                return;
+            }
+            try (InputStream stream = Curl.getUrlConnection(url).getInputStream()) {
+                if (progressBar == null) {
+                    Files.copy(stream, target, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.deleteIfExists(target);
+                    Curl.downloadWithProgress(stream, fileName, target, progressBar, remoteFile.size());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(target);
+            throw ex;
+        }
+    }
+
+    /**
+     * @return false if server ignored Range header and file has to be downloaded by single stream
+     */
+    private static boolean downloadSegments(URL url, Path target, RemoteFile remoteFile, int segments,
+                                            @Nullable ProgressBar progressBar, String fileName) throws IOException {
+        long size = remoteFile.size();
+        long segmentSize = (size + segments - 1) / segments;
+        Progress progress = progressBar == null ? null : new Progress(progressBar, fileName, size);
+        try (FileChannel channel = FileChannel.open(target, CREATE, WRITE, TRUNCATE_EXISTING);
+             ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                     Thread.ofVirtual().name("curl-segment-", 0).factory())) {
+            // preallocate, so segments never extend file concurrently
+            channel.write(ByteBuffer.allocate(1), size - 1);
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (long from = 0; from < size; from += segmentSize) {
+                long start = from;
+                long end = Math.min(size, from + segmentSize) - 1;
+                futures.add(executor.submit(() -> downloadSegment(url, remoteFile, channel, start, end, progress)));
+            }
+            try {
+                for (Future<Boolean> future : futures) {
+                    if (!future.get()) {
+                        futures.forEach(item -> item.cancel(true));
+                        return false;
+                    }
+                }
+            } catch (ExecutionException ex) {
+                futures.forEach(item -> item.cancel(true));
+                throw ex.getCause() instanceof IOException ioException ? ioException : new IOException(ex.getCause());
+            } catch (InterruptedException ex) {
+                futures.forEach(item -> item.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", ex);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if server responded with whole file instead of requested range
+     */
+    private static boolean downloadSegment(URL url, RemoteFile remoteFile, FileChannel channel, long start, long end,
+                                           @Nullable Progress progress) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) Curl.getUrlConnection(url);
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        if (remoteFile.etag() != null) {
+            // file changed since HEAD: server sends whole new file with 200 and we fallback to single stream
+            connection.setRequestProperty("If-Range", remoteFile.etag());
+        }
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                    return false;
+                }
+                throw new IOException("Unable to download bytes %d-%d of <%s>. Code: %d"
+                        .formatted(start, end, url, connection.getResponseCode()));
+            }
+            long position = start;
+            try (InputStream stream = connection.getInputStream()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while (position <= end && (read = stream.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                    if (progress != null) {
+                        progress.add(read);
+                    }
+                }
+            }
+            if (position != end + 1) {
+                throw new IOException("Incomplete bytes %d-%d of <%s>: got %d bytes"
+                        .formatted(start, end, url, position - start));
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Download to target.part, keeping url and validators of remote file in target.part.state. If .part exists and
+     * remote file has same ETag/Last-Modified, download continues with Range: bytes=N- and If-Range, so server sends
+     * whole file if it was changed. Broken transfer is retried maxAttempts times from current .part size, and on final
+     * failure .part and state are left for next call. Digest is updated as bytes are written, only existing .part
+     * prefix is read once when download is resumed.
+     *
+     * @param expectedDigest - hex digest to verify or null
+     */
+    static Curl.DownloadResult downloadResumable(URL url, Path target, String algorithm, @Nullable String expectedDigest,
+                                                @Nullable ProgressBar progressBar, String fileName) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, ex);
+        }
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        Path statePath = target.resolveSibling(target.getFileName() + ".part.state");
+        RemoteFile remoteFile = head(url);
+        if (!isResumable(url, remoteFile, part, statePath)) {
+            Files.deleteIfExists(part);
+        }
+        writeState(url, remoteFile, statePath);
+        long resumedFrom = Files.exists(part) ? Files.size(part) : 0;
+        Progress progress = progressBar == null ? null : new Progress(progressBar, fileName, remoteFile.size());
+
+        try (FileChannel channel = FileChannel.open(part, CREATE, WRITE, READ)) {
+            ResumableTransfer transfer = new ResumableTransfer(url, remoteFile, channel, digest, progress);
+            transfer.position = hashPrefix(channel, digest, resumedFrom);
+            if (progress != null) {
+                progress.add(transfer.position);
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    transfer.run();
+                    break;
+                } catch (RestartException ex) {
+                    // file changed on server and it sent whole file instead of range. Download new version from start
+                    remoteFile = head(url);
+                    writeState(url, remoteFile, statePath);
+                    transfer.remoteFile = remoteFile;
+                    transfer.progress = progressBar == null ? null : new Progress(progressBar, fileName, remoteFile.size());
+                    transfer.position = 0;
+                    digest.reset();
+                    channel.truncate(0);
+                } catch (IOException ex) {
+                    if (attempt >= RESUME_ATTEMPTS) {
+                        throw ex;
+                    }
+                    // drop bytes that were written but not hashed
+                    channel.truncate(transfer.position);
+                    sleep(attempt * 1000L);
+                }
+            }
+            channel.force(false);
+        }
+
+        String hex = HexFormat.of().formatHex(digest.digest());
+        if (expectedDigest != null && !expectedDigest.equalsIgnoreCase(hex)) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(statePath);
+            throw new IllegalStateException("%s digest mismatch of <%s>. Expected: %s. Actual: %s".formatted(algorithm, url, expectedDigest, hex));
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(statePath);
+        return new Curl.DownloadResult(target, Files.size(target), algorithm, hex, resumedFrom);
+    }
+
+    private static boolean isResumable(URL url, RemoteFile remoteFile, Path part, Path statePath) {
+        if (!remoteFile.acceptRanges() || !Files.exists(part) || !Files.exists(statePath)) {
+            return false;
+        }
+        Properties state = new Properties();
+        try (InputStream stream = Files.newInputStream(statePath)) {
+            state.load(stream);
+        } catch (IOException ex) {
+            return false;
+        }
+        boolean sameValidator = remoteFile.etag() != null
+                ? remoteFile.etag().equals(state.getProperty("etag"))
+                : remoteFile.lastModified() != null && remoteFile.lastModified().equals(state.getProperty("lastModified"));
+        return sameValidator && url.toString().equals(state.getProperty("url"))
+                && String.valueOf(remoteFile.size()).equals(state.getProperty("size"));
+    }
+
+    private static void writeState(URL url, RemoteFile remoteFile, Path statePath) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("url", url.toString());
+        state.setProperty("size", String.valueOf(remoteFile.size()));
+        if (remoteFile.etag() != null) {
+            state.setProperty("etag", remoteFile.etag());
+        }
+        if (remoteFile.lastModified() != null) {
+            state.setProperty("lastModified", remoteFile.lastModified());
+        }
+        try (OutputStream stream = Files.newOutputStream(statePath)) {
+            state.store(stream, null);
+        }
+    }
+
+    /**
+     * @return number of hashed bytes
+     */
+    private static long hashPrefix(FileChannel channel, MessageDigest digest, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = 0;
+        while (position < length) {
+            buffer.clear().limit((int) Math.min(BUFFER_SIZE, length - position));
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                break;
+            }
+            digest.update(buffer.flip());
+            position += read;
+        }
+        channel.truncate(position);
+        return position;
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted", ex);
+        }
+    }
+
+    private static final class RestartException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Sequential download from position till end of file. Position is advanced only after bytes are written and
+     * hashed, so on failure file can be truncated to it and download continued.
+     */
+    private static final class ResumableTransfer {
+
+        private final URL url;
+        private final FileChannel channel;
+        private final MessageDigest digest;
+        // replaced when file changed on server and download restarts
+        private RemoteFile remoteFile;
+        private @Nullable Progress progress;
+        private long position;
+
+        private ResumableTransfer(URL url, RemoteFile remoteFile, FileChannel channel, MessageDigest digest,
+                                  @Nullable Progress progress) {
+            this.url = url;
+            this.remoteFile = remoteFile;
+            this.channel = channel;
+            this.digest = digest;
+            this.progress = progress;
+        }
+
+        /**
+         * Throws RestartException if range was requested but server sent whole file
+         */
+        private void run() throws IOException {
+            if (remoteFile.size() >= 0 && position >= remoteFile.size()) {
+                return;
+            }
+            HttpURLConnection connection = (HttpURLConnection) Curl.getUrlConnection(url);
+            if (position > 0) {
+                connection.setRequestProperty("Range", "bytes=" + position + "-");
+                String validator = remoteFile.etag() != null ? remoteFile.etag() : remoteFile.lastModified();
+                if (validator != null) {
+                    connection.setRequestProperty("If-Range", validator);
+                }
+            }
+            try {
+                int code = connection.getResponseCode();
+                if (position > 0 && code == HttpURLConnection.HTTP_OK) {
+                    throw new RestartException();
+                }
+                if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IllegalStateException("Error while download from <%s>. Code: %d".formatted(url, code));
+                }
+                try (InputStream stream = connection.getInputStream()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = stream.read(buffer)) != -1) {
+                        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                        long writePosition = position;
+                        while (byteBuffer.hasRemaining()) {
+                            writePosition += channel.write(byteBuffer, writePosition);
+                        }
+                        digest.update(buffer, 0, read);
+                        position += read;
+                        if (progress != null) {
+                            progress.add(read);
+                        }
+                    }
+                }
+            } finally {
+                connection.disconnect();
+            }
+            // connection may be closed without error before content length reached
+            if (remoteFile.size() >= 0 && position < remoteFile.size()) {
+                throw new IOException("Connection closed at %d of %d bytes of <%s>".formatted(position, remoteFile.size(), url));
+            }
+        }
+    }
+
+    /**
+     * Aggregates read bytes of all segments into ProgressBar, same format as single stream download
+     */
+    static final class Progress {
+
+        private final ProgressBar progressBar;
+        private final String fileName;
+        private final double fileSize;
+        private final long maxMb;
+        private long readBytes;
+        private long nextStep = 1;
+
+        Progress(ProgressBar progressBar, String fileName, long fileSize) {
+            this.progressBar = progressBar;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.maxMb = fileSize / Curl.ONE_MB;
+        }
+
+        synchronized void add(long bytes) {
+            readBytes += bytes;
+            if (readBytes / (double) Curl.ONE_MB > nextStep) {
+                nextStep++;
+                double progress = (readBytes / fileSize * 100) * 0.99; // max 99%
+                progressBar.progress(progress, "Downloading %s %dMb. of %d Mb.".formatted(fileName, readBytes / Curl.ONE_MB, maxMb));
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.homio.hquery;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import lombok.SneakyThrows;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+
+/**
+ * Shared HTTP transport of Curl. Single HttpClient is reused by all calls, so keep-alive connections are pooled and
+ * HTTP/2 is negotiated where server supports it. Timeouts differ per call and are applied per request with
+ * HttpRequest.timeout, and credentials are sent as request header, so no call needs own client.
+ * exchange() keeps RestTemplate contract for code that used it before: uri variables expansion, Spring Jackson
+ * defaults, null for empty body and RestClientException hierarchy on errors.
+ */
+final class CurlTransport {
+
+    static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    static final int DEFAULT_READ_TIMEOUT = 60;
+
+    // same configuration as Jackson converter of RestTemplateBuilder, i.e. unknown properties are ignored
+    static final ObjectMapper REST_OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(DEFAULT_CONNECT_TIMEOUT))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .version(HttpClient.Version.HTTP_2)
+            .build();
+    private static final DefaultUriBuilderFactory URI_FACTORY = new DefaultUriBuilderFactory();
+
+    private CurlTransport() {
+    }
+
+    static HttpClient client() {
+        return CLIENT;
+    }
+
+    /**
+     * Preemptive basic authentication header. Used instead of Authenticator, which requires own HttpClient
+     */
+    static String basicAuthorization(String user, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param body         - request body sent as JSON or null
+     * @param responseType - type to convert response to. String and byte[] are returned as is
+     * @return converted response body or null if body is empty
+     */
+    @SneakyThrows
+    static <T> T exchange(String method, String url, @Nullable Object body, JavaType responseType, int timeoutSec,
+                          Object... uriVariables) {
+        URI uri = URI_FACTORY.expand(url, uriVariables);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(timeoutSec));
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            // HTTP/2 is negotiated by TLS ALPN; cleartext h2c upgrade headers confuse simple device web servers
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        Class<?> rawType = responseType.getRawClass();
+        if (rawType != String.class && rawType != byte[].class) {
+            builder.header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE + ", application/*+json");
+        }
+        BodyPublisher publisher = BodyPublishers.noBody();
+        if (body != null) {
+            builder.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+            publisher = body instanceof String value ? BodyPublishers.ofString(value)
+                    : BodyPublishers.ofByteArray(REST_OBJECT_MAPPER.writeValueAsBytes(body));
+        }
+        builder.method(method, publisher);
+
+        try {
+            HttpResponse<InputStream> response = client().send(builder.build(), BodyHandlers.ofInputStream());
+            try (InputStream stream = response.body()) {
+                if (response.statusCode() >= 400) {
+                    throw statusException(response, stream.readNBytes(64 * 1024));
+                }
+                return readBody(stream, responseType, charset(response));
+            }
+        } catch (IOException ex) {
+            throw new ResourceAccessException("I/O error on %s request for \"%s\": %s".formatted(method, url, ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * GET with If-None-Match / If-Modified-Since of previous response. Status 304 is returned as is, other statuses
+     * above 400 fail with RestClientException like exchange() does.
+     *
+     * @param async - send by HttpClient executor instead of calling thread
+     */
+    @SneakyThrows
+    static CompletableFuture<Validated> getValidated(String url, @Nullable String etag, @Nullable String lastModified,
+                                                     int timeoutSec, boolean async) {
+        URI uri = URI_FACTORY.expand(url);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(timeoutSec)).GET();
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (etag != null) {
+            builder.header(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            builder.header(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+        HttpRequest request = builder.build();
+        if (async) {
+            return client().sendAsync(request, BodyHandlers.ofByteArray()).thenApply(CurlTransport::validated);
+        }
+        try {
+            return CompletableFuture.completedFuture(validated(client().send(request, BodyHandlers.ofByteArray())));
+        } catch (IOException ex) {
+            throw new ResourceAccessException("I/O error on GET request for \"%s\": %s".formatted(url, ex.getMessage()), ex);
+        }
+    }
+
+    private static Validated validated(HttpResponse<byte[]> response) {
+        if (response.statusCode() >= 400) {
+            throw statusException(response, response.body());
+        }
+        return new Validated(response.statusCode(),
+                response.headers().firstValue(HttpHeaders.ETAG).orElse(null),
+                response.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElse(null),
+                response.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(null),
+                response.body());
+    }
+
+    /**
+     * Convert body the same way as exchange() does
+     */
+    static <T> T readBody(byte[] body, JavaType responseType, @Nullable String contentType) throws IOException {
+        return readBody(new ByteArrayInputStream(body), responseType, charset(contentType));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readBody(InputStream stream, JavaType responseType, Charset charset) throws IOException {
+        Class<?> rawType = responseType.getRawClass();
+        if (rawType == Void.class || rawType == void.class) {
+            return null;
+        }
+        if (rawType == byte[].class) {
+            byte[] bytes = stream.readAllBytes();
+            return bytes.length == 0 ? null : (T) bytes;
+        }
+        if (rawType == String.class) {
+            byte[] bytes = stream.readAllBytes();
+            return bytes.length == 0 ? null : (T) new String(bytes, charset);
+        }
+        PushbackInputStream input = new PushbackInputStream(stream);
+        int first = input.read();
+        if (first == -1) {
+            return null;
+        }
+        input.unread(first);
+        return REST_OBJECT_MAPPER.readValue(input, responseType);
+    }
+
+    private static Charset charset(HttpResponse<?> response) {
+        return charset(response.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(null));
+    }
+
+    private static Charset charset(@Nullable String contentType) {
+        if (contentType == null) {
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            Charset charset = MediaType.parseMediaType(contentType).getCharset();
+            return charset == null ? StandardCharsets.UTF_8 : charset;
+        } catch (RuntimeException ex) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    private static RestClientResponseException statusException(HttpResponse<?> response, byte[] body) {
+        HttpHeaders headers = new HttpHeaders();
+        response.headers().map().forEach(headers::addAll);
+        HttpStatusCode status = HttpStatusCode.valueOf(response.statusCode());
+        HttpStatus knownStatus = HttpStatus.resolve(response.statusCode());
+        String statusText = knownStatus == null ? "" : knownStatus.getReasonPhrase();
+        Charset charset = charset(response);
+        if (status.is4xxClientError()) {
+            return HttpClientErrorException.create(status, statusText, headers, body, charset);
+        }
+        if (status.is5xxServerError()) {
+            return HttpServerErrorException.create(status, statusText, headers, body, charset);
+        }
+        return new UnknownHttpStatusCodeException(response.statusCode(), statusText, headers, body, charset);
+    }
+
+    /**
+     * Response of conditional GET. Body is empty for 304 Not Modified
+     */
+    record Validated(int status, @Nullable String etag, @Nullable String lastModified, @Nullable String contentType,
+                     byte[] body) {
+
+        boolean notModified() {
+            return status == HttpStatus.NOT_MODIFIED.value();
+        }
+    }
+}
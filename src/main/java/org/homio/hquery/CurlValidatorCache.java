@@ -0,0 +1,199 @@
+package org.homio.hquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import jakarta.annotation.Nullable;
+import lombok.SneakyThrows;
+
+/**
+ * Bodies of cached CurlQuery responses with their ETag / Last-Modified validators. When cached result expires,
+ * request is sent with If-None-Match / If-Modified-Since and stored body is reused on 304 Not Modified.
+ * <p>
+ * With directory every url is stored as &lt;sha-256&gt;.body and &lt;sha-256&gt;.meta files, so entries survive restart
+ * and result fetched within cacheValidSec before restart is used without request. Revalidation rewrites only .meta.
+ * Without directory entries are kept in memory. At most maxEntries are kept, on disk least recently written are
+ * removed by prune().
+ */
+final class CurlValidatorCache {
+
+    private static final String BODY = ".body";
+    private static final String META = ".meta";
+
+    private final @Nullable Path directory;
+    private final int maxEntries;
+    private final Map<String, Entry> memory;
+    private final HQueryLogger logger;
+
+    CurlValidatorCache(@Nullable Path directory, int maxEntries, HQueryLogger logger) {
+        this.directory = directory;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.logger = logger;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > CurlValidatorCache.this.maxEntries;
+            }
+        };
+    }
+
+    @Nullable
+    Entry get(String url) {
+        if (directory == null) {
+            synchronized (memory) {
+                return memory.get(url);
+            }
+        }
+        String name = fileName(url);
+        Path metaPath = directory.resolve(name + META);
+        Path bodyPath = directory.resolve(name + BODY);
+        try {
+            Properties meta = new Properties();
+            try (InputStream stream = Files.newInputStream(metaPath)) {
+                meta.load(stream);
+            }
+            byte[] body = Files.readAllBytes(bodyPath);
+            if (!url.equals(meta.getProperty("url"))
+                    || !String.valueOf(body.length).equals(meta.getProperty("size"))) {
+                // .body replaced by other write after .meta was read
+                return null;
+            }
+            return new Entry(url, meta.getProperty("etag"), meta.getProperty("lastModified"),
+                    meta.getProperty("contentType"), Long.parseLong(meta.getProperty("fetchedAt", "0")), body);
+        } catch (NoSuchFileException ignore) {
+            return null;
+        } catch (IOException | RuntimeException ex) {
+            logger.error("Unable to read cached curl response of " + url + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store 200 response
+     */
+    Entry put(String url, CurlTransport.Validated response) {
+        Entry entry = new Entry(url, response.etag(), response.lastModified(), response.contentType(),
+                System.currentTimeMillis(), response.body());
+        store(entry, true);
+        return entry;
+    }
+
+    /**
+     * Store 304 response: body is kept, validators are updated if server sent new ones
+     */
+    Entry revalidated(Entry previous, CurlTransport.Validated response) {
+        Entry entry = new Entry(previous.url(),
+                response.etag() == null ? previous.etag() : response.etag(),
+                response.lastModified() == null ? previous.lastModified() : response.lastModified(),
+                previous.contentType(), System.currentTimeMillis(), previous.body());
+        store(entry, false);
+        return entry;
+    }
+
+    /**
+     * Remove least recently written entries above maxEntries from directory
+     */
+    void prune() {
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> metas = files.filter(path -> path.getFileName().toString().endsWith(META))
+                                    .sorted(Comparator.comparing(CurlValidatorCache::lastModifiedTime).reversed())
+                                    .toList();
+            for (Path meta : metas.subList(Math.min(maxEntries, metas.size()), metas.size())) {
+                String name = meta.getFileName().toString();
+                Files.deleteIfExists(meta);
+                Files.deleteIfExists(meta.resolveSibling(name.substring(0, name.length() - META.length()) + BODY));
+            }
+        } catch (IOException ex) {
+            logger.error("Unable to prune curl cache " + directory + ": " + ex.getMessage());
+        }
+    }
+
+    private void store(Entry entry, boolean withBody) {
+        if (directory == null) {
+            synchronized (memory) {
+                memory.put(entry.url(), entry);
+            }
+            return;
+        }
+        String name = fileName(entry.url());
+        Properties meta = new Properties();
+        meta.setProperty("url", entry.url());
+        meta.setProperty("size", String.valueOf(entry.body().length));
+        meta.setProperty("fetchedAt", String.valueOf(entry.fetchedAt()));
+        if (entry.etag() != null) {
+            meta.setProperty("etag", entry.etag());
+        }
+        if (entry.lastModified() != null) {
+            meta.setProperty("lastModified", entry.lastModified());
+        }
+        if (entry.contentType() != null) {
+            meta.setProperty("contentType", entry.contentType());
+        }
+        try {
+            Files.createDirectories(directory);
+            if (withBody) {
+                replace(directory.resolve(name + BODY), entry.body());
+            }
+            ByteArrayOutputStream metaContent = new ByteArrayOutputStream();
+            meta.store(metaContent, null);
+            replace(directory.resolve(name + META), metaContent.toByteArray());
+        } catch (IOException ex) {
+            // cache is optimization only, request result is returned anyway
+            logger.error("Unable to store cached curl response of " + entry.url() + ": " + ex.getMessage());
+        }
+    }
+
+    private void replace(Path target, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @SneakyThrows
+    private static String fileName(String url) {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(url.getBytes(UTF_8)));
+    }
+
+    private static FileTime lastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * @param fetchedAt - time of last 200 or 304 response
+     */
+    record Entry(String url, @Nullable String etag, @Nullable String lastModified, @Nullable String contentType,
+                 long fetchedAt, byte[] body) {
+
+        boolean isFresh(int validSec) {
+            return System.currentTimeMillis() - fetchedAt < TimeUnit.SECONDS.toMillis(validSec);
+        }
+    }
+}
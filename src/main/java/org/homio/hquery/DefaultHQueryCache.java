@@ -0,0 +1,199 @@
+package org.homio.hquery;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache bounded by entries count and total weight. Expired entries are dropped on access and purged periodically.
+ * Entries put with staleSeconds are kept for lookup until stale period ends as well.
+ */
+public final class DefaultHQueryCache implements HQueryCache {
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final ScheduledExecutorService purgeExecutor;
+    private long weight;
+
+    /**
+     * @param maxEntries          - max number of entries
+     * @param maxWeight           - max summary weight of all entries
+     * @param purgeIntervalSeconds - how often to purge expired entries. 0 - purge only on access
+     */
+    public DefaultHQueryCache(int maxEntries, long maxWeight, int purgeIntervalSeconds) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        if (purgeIntervalSeconds > 0) {
+            purgeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "hquery-cache-purge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            purgeExecutor.scheduleWithFixedDelay(this::purgeExpired, purgeIntervalSeconds, purgeIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            purgeExecutor = null;
+        }
+    }
+
+    @Override
+    public Object get(Key key) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            Entry entry = getEntry(key, now);
+            if (entry == null || now >= entry.expireAt) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Lookup lookup(Key key) {
+        lock.lock();
+        try {
+            Entry entry = getEntry(key, System.currentTimeMillis());
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return new Lookup(entry.value, entry.expireAt);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Key key, Object value, int ttlSeconds, long weight) {
+        put(key, value, ttlSeconds, 0, weight);
+    }
+
+    @Override
+    public void put(Key key, Object value, int ttlSeconds, int staleSeconds, long weight) {
+        if (ttlSeconds <= 0 || weight > maxWeight) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expireAt = now + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        expireAt = expireAt < now ? Long.MAX_VALUE : expireAt;
+        long removeAt = expireAt + TimeUnit.SECONDS.toMillis(Math.max(staleSeconds, 0));
+        lock.lock();
+        try {
+            remove(key);
+            entries.put(key, new Entry(value, weight, expireAt, removeAt < expireAt ? Long.MAX_VALUE : removeAt));
+            this.weight += weight;
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while ((this.weight > maxWeight || entries.size() > maxEntries) && iterator.hasNext()) {
+                this.weight -= iterator.next().getValue().weight;
+                iterator.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(Key key) {
+        lock.lock();
+        try {
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), entries.size(), weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (purgeExecutor != null) {
+            purgeExecutor.shutdownNow();
+        }
+        invalidateAll();
+    }
+
+    void purgeExpired() {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.isExpired(now)) {
+                    weight -= entry.weight;
+                    iterator.remove();
+                    expirations.increment();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return entry which is fresh or stale, removing expired one
+     */
+    private Entry getEntry(Key key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isExpired(now)) {
+            remove(key);
+            expirations.increment();
+            return null;
+        }
+        return entry;
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    /**
+     * @param expireAt - value is stale after this time
+     * @param removeAt - value is removed after this time
+     */
+    private record Entry(Object value, long weight, long expireAt, long removeAt) {
+
+        boolean isExpired(long now) {
+            return now >= removeAt;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.homio.hquery;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import lombok.Getter;
+
+/**
+ * Collects several repository calls and executes all single-command hardware queries among them in one process. Output
+ * of the combined process is split back by marker lines, so every call gets own exit code, error handling and result
+ * parsing. Calls that can not be combined (curl, async, streaming, default methods, etc...) are executed one by one.
+ * Queries with persistentShell are combined into separate process. Output is reported to ProgressBar of query that
+ * produced it, and combined process is killed after the longest maxWaitTimeout of its queries.
+ * <pre>
+ * HQueryBatch&lt;MachineHardwareRepository&gt; batch = HQueryBatch.of(repository);
+ * HQueryBatch.Result&lt;String&gt; hostname = batch.add(repo -&gt; repo.execute("hostname"));
+ * HQueryBatch.Result&lt;String&gt; kernel = batch.add(repo -&gt; repo.execute("uname -r"));
+ * batch.execute();
+ * String value = hostname.get();
+ * </pre>
+ * Batch is not thread safe and may be executed only once.
+ */
+public final class HQueryBatch<T> {
+
+    private final T repository;
+    private final T recorder;
+    private final List<Call> calls = new ArrayList<>();
+    private Call lastCall;
+    private boolean executed;
+
+    @SuppressWarnings("unchecked")
+    private HQueryBatch(T repository) {
+        this.repository = repository;
+        this.recorder = (T) Proxy.newProxyInstance(repository.getClass().getClassLoader(),
+                repository.getClass().getInterfaces(), (proxy, method, args) -> {
+                    lastCall = new Call(method, args);
+                    return defaultValue(method.getReturnType());
+                });
+    }
+
+    /**
+     * @param repository - repository bean. Any other implementation of repository interface is accepted as well, in
+     *                   which case calls are just invoked one by one
+     */
+    public static <T> HQueryBatch<T> of(T repository) {
+        if (repository.getClass().getInterfaces().length == 0) {
+            throw new IllegalArgumentException("Repository " + repository.getClass() + " not implements any interface");
+        }
+        return new HQueryBatch<>(repository);
+    }
+
+    /**
+     * @param call - function that invokes exactly one repository method on passed argument
+     * @return holder of call result, available after execute()
+     */
+    public <R> Result<R> add(Function<T, R> call) {
+        if (executed) {
+            throw new IllegalStateException("Batch already executed");
+        }
+        lastCall = null;
+        call.apply(recorder);
+        if (lastCall == null) {
+            throw new IllegalArgumentException("Batch call must invoke repository method");
+        }
+        calls.add(lastCall);
+        return new Result<>(lastCall);
+    }
+
+    public void execute() {
+        if (executed) {
+            throw new IllegalStateException("Batch already executed");
+        }
+        executed = true;
+        if (Proxy.isProxyClass(repository.getClass())
+                && Proxy.getInvocationHandler(repository) instanceof HQueryFactoryPostProcessor.RepositoryHandler handler) {
+            handler.executeBatch(repository, calls);
+        } else if (repository instanceof HQueryDispatcher.Owner owner
+                && owner.hQueryDispatcher() instanceof HQueryFactoryPostProcessor.RepositoryHandler handler) {
+            handler.executeBatch(repository, calls);
+        } else {
+            for (Call call : calls) {
+                call.complete(() -> invoke(call));
+            }
+        }
+    }
+
+    private Object invoke(Call call) {
+        try {
+            return call.method.invoke(repository, call.args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause() instanceof RuntimeException runtimeException ? runtimeException
+                    : new IllegalStateException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    /**
+     * Recorded repository method invocation
+     */
+    static final class Call {
+
+        @Getter
+        private final Method method;
+        @Getter
+        private final Object[] args;
+        private boolean done;
+        private Object value;
+        private RuntimeException error;
+
+        private Call(Method method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        void complete(Supplier<Object> result) {
+            try {
+                value = result.get();
+            } catch (RuntimeException ex) {
+                error = ex;
+            }
+            done = true;
+        }
+    }
+
+    public static final class Result<R> implements Supplier<R> {
+
+        private final Call call;
+
+        private Result(Call call) {
+            this.call = call;
+        }
+
+        /**
+         * @return call result
+         * @throws IllegalStateException if batch not executed yet
+         * @throws RuntimeException      same exception as repository method would throw when called directly
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public R get() {
+            if (!call.done) {
+                throw new IllegalStateException("Batch not executed");
+            }
+            if (call.error != null) {
+                throw call.error;
+            }
+            return (R) call.value;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.homio.hquery;
+
+import jakarta.annotation.Nullable;
+
+/**
+ * Result cache used by hardware repositories for queries with HardwareQuery.cacheValid or CurlQuery.cache. One cache
+ * instance belongs to one application context. Register own bean of this type to replace default implementation.
+ */
+public interface HQueryCache {
+
+  @Nullable
+  Object get(Key key);
+
+  /**
+   * Like get, but also returns value which expired not longer than staleSeconds ago, so caller may use it while value
+   * is refreshed. Default implementation returns fresh values only and never reports expiration time.
+   */
+  @Nullable
+  default Lookup lookup(Key key) {
+    Object value = get(key);
+    return value == null ? null : new Lookup(value, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param key        - cache key
+   * @param value      - value to store
+   * @param ttlSeconds - how long value is valid
+   * @param weight     - approximate size of value (chars of command output)
+   */
+  void put(Key key, Object value, int ttlSeconds, long weight);
+
+  /**
+   * @param staleSeconds - how long value is kept after ttlSeconds and returned by lookup as stale
+   */
+  default void put(Key key, Object value, int ttlSeconds, int staleSeconds, long weight) {
+    put(key, value, ttlSeconds, weight);
+  }
+
+  void invalidate(Key key);
+
+  void invalidateAll();
+
+  Stats getStats();
+
+  /**
+   * Release resources. Called when application context is closed.
+   */
+  default void close() {}
+
+  /**
+   * @param source  - query type: hardware, curl, etc...
+   * @param command - fully resolved command or url
+   * @param dir     - working directory or empty string
+   * @param os      - OS variant for which command was resolved
+   */
+  record Key(String source, String command, String dir, String os) {}
+
+  /**
+   * @param expireAt - epoch millis after which value is stale
+   */
+  record Lookup(Object value, long expireAt) {}
+
+  record Stats(long hits, long misses, long evictions, long expirations, long size, long weight) {}
+}
@@ -1,7 +1,11 @@
 package org.homio.hquery;
 
+import java.util.List;
+import org.homio.hquery.metrics.MicrometerHQueryMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.ImportAware;
@@ -23,8 +27,22 @@ public class HQueryConfiguration implements ImportAware {
   @Bean
   public BeanFactoryPostProcessor beanFactoryPostProcessor(
       @Autowired HQueryLogger logger,
-      @Autowired(required = false) HQueryFactoryPostHandler handler) {
+      @Autowired(required = false) HQueryFactoryPostHandler handler,
+      @Autowired(required = false) HQueryCache cache,
+      @Autowired(required = false) List<HQueryMetrics> metrics) {
     return new HQueryFactoryPostProcessor(
-        scanBaseClassesPackage.getString("scanBaseClassesPackage"), handler, logger);
+        scanBaseClassesPackage.getString("scanBaseClassesPackage"), handler, logger, cache,
+        metrics == null ? List.of() : metrics);
+  }
+
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+  @ConditionalOnProperty(name = "hquery.metrics.micrometer", havingValue = "true")
+  static class MicrometerMetricsConfiguration {
+
+    @Bean
+    public MicrometerHQueryMetrics hQueryMicrometerMetrics() {
+      return new MicrometerHQueryMetrics();
+    }
   }
 }
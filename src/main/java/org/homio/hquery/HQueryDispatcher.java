@@ -0,0 +1,31 @@
+package org.homio.hquery;
+
+/**
+ * Entry point of repository implementations generated by HardwareRepositoryProcessor. Generated class passes index of
+ * called method in its static hQueryMethods() array instead of Method, so no reflection is involved per call.
+ */
+public interface HQueryDispatcher {
+
+  /**
+   * @param methodIndex - index of method in hQueryMethods() of generated class
+   * @param args        - method arguments or null if method has no parameters
+   */
+  Object dispatch(int methodIndex, Object[] args);
+
+  /**
+   * @param binaryName - repository interface binary name, i.e. org.example.Outer$Repository
+   * @return name of generated implementation class, i.e. org.example.Outer_RepositoryHQueryImpl
+   */
+  static String implementationName(String binaryName) {
+    int packageEnd = binaryName.lastIndexOf('.') + 1;
+    return binaryName.substring(0, packageEnd) + binaryName.substring(packageEnd).replace('$', '_') + "HQueryImpl";
+  }
+
+  /**
+   * Implemented by generated repository classes
+   */
+  interface Owner {
+
+    HQueryDispatcher hQueryDispatcher();
+  }
+}
@@ -1,37 +1,54 @@
 package org.homio.hquery;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.homio.hquery.HQueryMethodPlan.newInstance;
 
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
 import java.io.File;
-import java.lang.annotation.Annotation;
-import java.lang.invoke.MethodHandle;
-import java.lang.invoke.MethodHandles;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import lombok.AllArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.homio.hquery.api.*;
-import org.homio.hquery.api.ListParse.BooleanLineParse;
-import org.homio.hquery.api.ListParse.LineParse;
-import org.homio.hquery.api.ListParse.LineParsers;
 import org.homio.hquery.hardware.other.MachineHardwareRepository;
+import org.homio.hquery.metrics.JmxHQueryMetrics;
+import jakarta.annotation.Nullable;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
@@ -40,18 +57,41 @@ import org.springframework.context.annotation.ClassPathScanningCandidateComponen
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.Profiles;
 import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.util.ClassUtils;
 
-@AllArgsConstructor
-public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
+@RequiredArgsConstructor
+public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor, DisposableBean {
 
     public static final Pattern ENV_PATTERN = Pattern.compile("\\$\\{.*?}");
-    private static final Map<String, ProcessCache> cache = new HashMap<>();
+    // written by HardwareRepositoryProcessor, one repository binary name per line
+    public static final String REPOSITORY_INDEX = "META-INF/hquery/repositories";
+    private static final String OS = SystemUtils.OS_NAME;
 
     private final String basePackages;
     private final HQueryFactoryPostHandler handler;
     private final HQueryLogger logger;
-
-    private static String replaceValues(String text, BiFunction<String, String, String> propertyGetter) {
+    private final @Nullable HQueryCache customCache;
+    private final List<HQueryMetrics> customMetrics;
+
+    private final HQuerySingleFlight<HQueryCache.Key, ProcessCache> inFlight = new HQuerySingleFlight<>();
+    // keys with background refresh queued or running
+    private final Set<HQueryCache.Key> refreshing = ConcurrentHashMap.newKeySet();
+    private HQueryCache cache;
+    private CurlValidatorCache curlCache;
+    private volatile @Nullable HQuerySnapshot snapshot;
+    private int snapshotMinTtl;
+    private HQueryMetrics metrics = HQueryMetrics.NOOP;
+    private @Nullable JmxHQueryMetrics jmxMetrics;
+    private ExecutorService ioExecutor;
+    private ThreadPoolExecutor refreshExecutor;
+    private int ioShutdownTimeoutMs;
+    // null on Windows
+    private @Nullable HQueryShellPool shellPool;
+    // created on first FileQuery with watch=true
+    private @Nullable HQueryFileWatcher fileWatcher;
+    private int filePollInterval;
+
+    static String replaceValues(String text, BiFunction<String, String, String> propertyGetter) {
         Matcher matcher = HQueryFactoryPostProcessor.ENV_PATTERN.matcher(text);
         StringBuilder noteBuffer = new StringBuilder();
         while (matcher.find()) {
@@ -73,511 +113,872 @@ public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
         return valuePattern.contains(":") ? valuePattern.split(":") : new String[]{valuePattern, ""};
     }
 
+    @Override
     @SneakyThrows
-    private static <T> Constructor<T> findObjectConstructor(Class<T> clazz, Class<?>... parameterTypes) {
-        if (parameterTypes.length > 0) {
-            return clazz.getConstructor(parameterTypes);
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        HQueryStartupTimeline timeline = new HQueryStartupTimeline(beanFactory.getApplicationStartup(), logger);
+        Environment env = beanFactory.getBean(Environment.class);
+        boolean offline = env.acceptsProfiles(Profiles.of("offline"));
+        try (HQueryStartupTimeline.Step step = timeline.start("infrastructure")) {
+            step.tag("cache", customCache == null ? "default" : customCache.getClass().getSimpleName());
+            if (customCache == null) {
+                cache = new SnapshotCache(new DefaultHQueryCache(
+                        env.getProperty("hquery.cache.max-entries", Integer.class, 1024),
+                        env.getProperty("hquery.cache.max-weight", Long.class, 4L * 1024 * 1024),
+                        env.getProperty("hquery.cache.purge-interval", Integer.class, 60)));
+                beanFactory.registerSingleton("hQueryCache", cache);
+            } else {
+                cache = new SnapshotCache(customCache);
+            }
+            List<HQueryMetrics> allMetrics = new ArrayList<>(customMetrics);
+            if (env.getProperty("hquery.metrics.jmx", Boolean.class, false)) {
+                jmxMetrics = new JmxHQueryMetrics();
+                jmxMetrics.register();
+                allMetrics.add(jmxMetrics);
+            }
+            metrics = HQueryMetrics.composite(allMetrics);
+            ioExecutor = buildIoExecutor(env);
+            curlCache = buildCurlCache(env);
+            refreshExecutor = buildRefreshExecutor(env);
+            filePollInterval = env.getProperty("hquery.file-watch.poll-interval", Integer.class, 5);
+            if (HQueryShellPool.isSupported()) {
+                shellPool = new HQueryShellPool(
+                        env.getProperty("hquery.shell.max-size", Integer.class, 2),
+                        env.getProperty("hquery.shell.max-commands", Integer.class, 1000),
+                        ioExecutor);
+            }
+            step.tag("shell-pool", shellPool != null);
+        }
+        try (HQueryStartupTimeline.Step step = timeline.start("snapshot")) {
+            snapshot = loadSnapshot(env);
+            step.tag("entries", snapshot == null ? 0 : snapshot.getEntries().size());
+        }
+        HQueryExecutor hQueryExecutor = buildHQueryExecutor(timeline);
+        List<Class<?>> classes;
+        try (HQueryStartupTimeline.Step step = timeline.start("repositories.find")) {
+            classes = getClassesWithAnnotation(env, step);
+            step.tag("count", classes.size());
         }
-        for (Constructor<?> constructor : clazz.getConstructors()) {
-            if (constructor.getParameterCount() == 0) {
-                constructor.setAccessible(true);
-                return (Constructor<T>) constructor;
+        try (HQueryStartupTimeline.Step step = timeline.start("repositories.register")) {
+            boolean generatedImplementations = env.getProperty("hquery.generated-implementations", Boolean.class, true);
+            int generated = 0;
+            for (Class<?> aClass : classes) {
+                RepositoryHandler repositoryHandler = new RepositoryHandler(aClass, env, offline, hQueryExecutor);
+                Object repository = generatedImplementations ? createGeneratedImplementation(aClass, repositoryHandler) : null;
+                if (repository == null) {
+                    repository = Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[]{aClass}, repositoryHandler);
+                } else {
+                    generated++;
+                }
+                for (Method method : aClass.getMethods()) {
+                    if (!Modifier.isStatic(method.getModifiers())) {
+                        repositoryHandler.plans.put(method, HQueryMethodPlan.build(aClass, method, repository));
+                    }
+                }
+                repositoryHandler.indexPlans();
+                beanFactory.registerSingleton(aClass.getSimpleName(), repository);
             }
+            step.tag("generated", generated).tag("proxies", classes.size() - generated);
         }
-        return null;
-    }
 
-    @SneakyThrows
-    private static <T> T newInstance(Class<T> clazz) {
-        Constructor<T> constructor = findObjectConstructor(clazz);
-        if (constructor != null) {
-            constructor.setAccessible(true);
-            return constructor.newInstance();
+        try (HQueryStartupTimeline.Step step = timeline.start("prepare")) {
+            step.tag("executor", SystemUtils.IS_OS_WINDOWS ? "windows" : "unix");
+            hQueryExecutor.prepare(beanFactory, env);
         }
-        throw new IllegalArgumentException("Unable to find default constructor for class: " + clazz);
-    }
 
-    @Override
-    @SneakyThrows
-    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
-        Environment env = beanFactory.getBean(Environment.class);
-        HQueryExecutor hQueryExecutor = buildHQueryExecutor();
-        List<Class<?>> classes = getClassesWithAnnotation();
-        for (Class<?> aClass : classes) {
-            beanFactory.registerSingleton(aClass.getSimpleName(),
-                    Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[]{aClass}, (proxy, method, args) -> {
-                        if (method.getName().equals("toString")) {
-                            return aClass.getSimpleName() + ":" +
-                                   aClass.getDeclaredAnnotation(HardwareRepository.class).description();
-                        }
-                        return handleQuery(env, hQueryExecutor, aClass, proxy, method, args);
-                    }));
+        if (this.handler != null) {
+            try (HQueryStartupTimeline.Step step = timeline.start("handler")) {
+                step.tag("class", this.handler.getClass().getSimpleName());
+                this.handler.accept(beanFactory);
+            }
         }
+        timeline.finish();
+    }
 
-        hQueryExecutor.prepare(beanFactory, env);
-
-        if (this.handler != null) {
-            this.handler.accept(beanFactory);
+    /**
+     * @return instance of class generated by HardwareRepositoryProcessor or null if repository was compiled without it
+     */
+    private @Nullable Object createGeneratedImplementation(Class<?> repositoryClass, RepositoryHandler repositoryHandler) {
+        Class<?> implClass;
+        try {
+            implClass = Class.forName(HQueryDispatcher.implementationName(repositoryClass.getName()), true,
+                    repositoryClass.getClassLoader());
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+        try {
+            repositoryHandler.dispatchMethods = (Method[]) implClass.getMethod("hQueryMethods").invoke(null);
+            return implClass.getConstructor(HQueryDispatcher.class).newInstance(repositoryHandler);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.error("Unable to use generated implementation of %s, fallback to proxy: %s"
+                    .formatted(repositoryClass.getSimpleName(), ex));
+            repositoryHandler.dispatchMethods = null;
+            return null;
         }
     }
 
-    private Object handleQuery(Environment env, HQueryExecutor hQueryExecutor, Class<?> aClass, Object proxy, Method method, Object[] args) throws Throwable {
-        Class<?> returnType = method.getReturnType();
+    private Object handleQuery(Environment env, boolean offline, HQueryExecutor hQueryExecutor, HQueryMethodPlan plan,
+                               Object[] args) {
+        if (plan.isAsync()) {
+            return handleQueryAsync(env, offline, hQueryExecutor, plan, args);
+        }
+        if (plan.getStreamType() != null) {
+            return handleStreamQuery(env, offline, hQueryExecutor, plan, args);
+        }
+        if (plan.getFileQuery() != null) {
+            return offline ? null : handleFileQuery(plan, args, env);
+        }
         List<Object> results = null;
-        for (HardwareQuery hardwareQuery : method.getDeclaredAnnotationsByType(HardwareQuery.class)) {
+        for (HardwareQuery hardwareQuery : plan.getHardwareQueries()) {
             if (results == null) {
                 results = new ArrayList<>();
             }
-            results.add(handleHardwareQuery(hardwareQuery, args, method, env, aClass, hQueryExecutor));
+            results.add(offline ? null : handleHardwareQuery(hardwareQuery, args, plan, env, hQueryExecutor));
         }
-        Optional<AtomicReference<Object>> value = handleCurlQuery(method, args, env);
+        Optional<AtomicReference<Object>> value = handleCurlQuery(plan, args, env);
         if (value.isPresent()) {
             return value.get().get();
         }
         if (results != null) {
-            if (results.size() == 1) {
-                return results.iterator().next();
-            } else if (returnType.isAssignableFrom(List.class)) {
-                return results;
-            } else {
-                return null;
-            }
+            return combineResults(plan, results);
         }
 
-        if (method.isDefault()) {
-            MethodHandles.Lookup lookup = MethodHandles.lookup();
-            MethodHandle methodHandle = lookup.unreflectSpecial(method, aClass);
-            return methodHandle.bindTo(proxy).invokeWithArguments(args);
+        if (plan.getDefaultMethod() != null) {
+            return plan.invokeDefault(args);
         }
         throw new RuntimeException("Unable to execute hardware method without implementation");
     }
 
-    private Optional<AtomicReference<Object>> handleCurlQuery(Method method, Object[] args, Environment env) {
-        CurlQuery curlQuery = method.getDeclaredAnnotation(CurlQuery.class);
-        if (curlQuery != null) {
-            String argCmd = replaceStringWithArgs(curlQuery.value(), args, method);
-            String command = replaceValues(argCmd, env::getProperty);
-            ProcessCache processCache;
-
-            if ((curlQuery.cache() && curlQuery.cacheValidSec() > 0)
-                && cache.containsKey(command)
-                && (System.currentTimeMillis() - cache.get(command).executedTime) / 1000 < cache.get(command).cacheValidInSec) {
-                processCache = cache.get(command);
-            } else {
-                processCache = new ProcessCache(curlQuery.cacheValidSec());
-                try {
-                    Object result = Curl.getWithTimeout(command, method.getReturnType(), curlQuery.maxSecondsTimeout());
-                    Function<Object, Object> mapping = newInstance(curlQuery.mapping());
-                    processCache.response = mapping.apply(result);
-
-                } catch (Exception ex) {
-                    String msg = String.format("Error while execute curl command '%s'. Msg: '%s'%n", command, getErrorMessage(ex));
-                    logger.error(msg);
-                    processCache.errors.add(getErrorMessage(ex));
-                    if (!curlQuery.ignoreOnError()) {
-                        throw new HardwareException(processCache.errors, processCache.inputs, -1);
-                    } else if (!curlQuery.valueOnError().isEmpty()) {
-                        return Optional.of(new AtomicReference<>(curlQuery.valueOnError()));
-                    }
-                    processCache.retValue = -1;
+    /**
+     * Same flow as handleQuery but for methods that return CompletableFuture/CompletionStage. Caller thread is never
+     * blocked: processes complete via Process.onExit() and curl via HttpClient.sendAsync
+     */
+    private Object handleQueryAsync(Environment env, boolean offline, HQueryExecutor hQueryExecutor, HQueryMethodPlan plan,
+                                    Object[] args) {
+        if (plan.getFileQuery() != null) {
+            return offline ? completedFuture(null) : CompletableFuture.supplyAsync(() -> handleFileQuery(plan, args, env), ioExecutor);
+        }
+        CompletableFuture<List<Object>> results = null;
+        for (HardwareQuery hardwareQuery : plan.getHardwareQueries()) {
+            CompletableFuture<List<Object>> previous = results == null ? completedFuture(new ArrayList<>()) : results;
+            results = previous.thenCompose(list -> {
+                CompletableFuture<Object> result = offline ? completedFuture(null)
+                        : handleHardwareQueryAsync(hardwareQuery, args, plan, env, hQueryExecutor);
+                return result.thenApply(item -> {
+                    list.add(item);
+                    return list;
+                });
+            });
+        }
+        if (plan.getCurlQuery() != null) {
+            return results == null ? handleCurlQueryAsync(plan, args, env)
+                    : results.thenCompose(ignore -> handleCurlQueryAsync(plan, args, env));
+        }
+        if (results != null) {
+            return results.thenApply(list -> combineResults(plan, list));
+        }
+        if (plan.getDefaultMethod() != null) {
+            return plan.invokeDefault(args);
+        }
+        throw new RuntimeException("Unable to execute hardware method without implementation");
+    }
 
-                    // to avoid NPE instantiate empty class
-                    if (method.getReturnType().isAssignableFrom(JsonNode.class)) {
-                        processCache.response = new ObjectMapper().createObjectNode().put("error", getErrorMessage(ex));
-                    } else if (!method.getReturnType().isAssignableFrom(String.class)) {
-                        processCache.response = newInstance(method.getReturnType());
-                    }
-                }
-                if (processCache.errors.isEmpty() && curlQuery.cache() && curlQuery.cacheValidSec() > 0) {
-                    cache.put(command, processCache);
-                }
-            }
-            return Optional.of(new AtomicReference<>(processCache.response));
+    private static Object combineResults(HQueryMethodPlan plan, List<Object> results) {
+        if (results.size() == 1) {
+            return results.iterator().next();
+        } else if (plan.getResultType().isAssignableFrom(List.class)) {
+            return results;
+        }
+        return null;
+    }
+
+    private Optional<AtomicReference<Object>> handleCurlQuery(HQueryMethodPlan plan, Object[] args, Environment env) {
+        CurlQuery curlQuery = plan.getCurlQuery();
+        if (curlQuery != null) {
+            long start = System.nanoTime();
+            ProcessCache processCache = getCurlResult(plan, args, env, false).join();
+            return Optional.of(new AtomicReference<>(parseResult(plan.getMetricsQuery(curlQuery.value()), start,
+                    () -> getCurlValue(curlQuery, processCache))));
         }
         return Optional.empty();
     }
 
-    private String replaceStringWithArgs(String str, Object[] args, Method method) {
-        if (args != null) {
-            Annotation[][] apiParams = method.getParameterAnnotations();
-            for (int i = 0; i < args.length; i++) {
-                String regexp = null;
-                Object arg = args[i];
-                if (isParamHasAnnotation(apiParams, i, HQueryParam.class)) {
-                    regexp = ((HQueryParam) apiParams[i][0]).value();
-                }
+    private CompletableFuture<Object> handleCurlQueryAsync(HQueryMethodPlan plan, Object[] args, Environment env) {
+        long start = System.nanoTime();
+        CurlQuery curlQuery = plan.getCurlQuery();
+        return getCurlResult(plan, args, env, true).thenApply(processCache ->
+                parseResult(plan.getMetricsQuery(curlQuery.value()), start, () -> getCurlValue(curlQuery, processCache)));
+    }
 
-                String text = "";
-                while (!text.equals(str)) {
-                    text = str;
-                    str = str.replace(regexp == null ? ":([^\\s]+)" : ":" + regexp, String.valueOf(arg));
-                }
+    private CompletableFuture<ProcessCache> getCurlResult(HQueryMethodPlan plan, Object[] args, Environment env, boolean async) {
+        CurlQuery curlQuery = plan.getCurlQuery();
+        String argCmd = plan.replaceStringWithArgs(curlQuery.value(), args);
+        String command = replaceValues(argCmd, env::getProperty);
+        boolean useCache = curlQuery.cache() && curlQuery.cacheValidSec() > 0;
+        HQueryCache.Key key = new HQueryCache.Key("curl", command, "", OS);
+        if (useCache) {
+            ProcessCache cached = getCached(key, plan.getMetricsQuery(curlQuery.value()), curlQuery.refreshAheadSec(),
+                    () -> fetchCachedCurlQuery(plan, command, false, key));
+            if (cached != null) {
+                return completedFuture(cached);
             }
         }
-        return str;
+
+        Supplier<CompletableFuture<ProcessCache>> fetch = () -> fetchCachedCurlQuery(plan, command, async, useCache ? key : null);
+        return curlQuery.coalesce() ? inFlight.execute(key, fetch) : fetch.get();
     }
 
-    @SneakyThrows
-    private Object handleHardwareQuery(HardwareQuery hardwareQuery, Object[] args, Method method, Environment env,
-                                       Class<?> aClass, HQueryExecutor hQueryExecutor) {
-        if(env.acceptsProfiles(Profiles.of("offline"))) {
+    private CompletableFuture<ProcessCache> fetchCachedCurlQuery(HQueryMethodPlan plan, String command, boolean async,
+                                                                 @Nullable HQueryCache.Key cacheKey) {
+        CurlQuery curlQuery = plan.getCurlQuery();
+        return fetchCurlQuery(plan, command, async, cacheKey != null).thenApply(processCache -> {
+            if (processCache.errors.isEmpty() && cacheKey != null) {
+                cache.put(cacheKey, processCache, curlQuery.cacheValidSec(), curlQuery.staleWhileRevalidateSec(),
+                        processCache.getWeight());
+            }
+            return processCache;
+        });
+    }
+
+    /**
+     * Cached result of key or null. Stale result (see staleWhileRevalidate) and result read less than refreshAheadSec
+     * before it expires are returned as is, and refresh is started in background.
+     *
+     * @param refresh - executes query and puts result to cache. Must not report to caller, i.e. item consumer
+     */
+    private @Nullable ProcessCache getCached(HQueryCache.Key key, HQueryMetrics.Query query, int refreshAheadSec,
+                                             Supplier<CompletableFuture<ProcessCache>> refresh) {
+        HQueryCache.Lookup lookup = cache.lookup(key);
+        metrics.recordCache(query, lookup != null);
+        if (lookup == null) {
             return null;
         }
-        ErrorsHandler errorsHandler = method.getAnnotation(ErrorsHandler.class);
-        int maxWaitTimeout = getMaxWaitTimeout(hardwareQuery, args, method);
-        ProgressBar progressBar = getProgressBar(args, hardwareQuery.printOutput());
+        if (System.currentTimeMillis() >= lookup.expireAt() - SECONDS.toMillis(Math.max(refreshAheadSec, 0))) {
+            refreshInBackground(key, refresh);
+        }
+        return (ProcessCache) lookup.value();
+    }
 
-        List<String> parts = buildExecutableCommand(hardwareQuery, args, method, env, hQueryExecutor);
-        if (parts.isEmpty()) {
-            return returnOnDisableValue(method, aClass);
+    /**
+     * Run at most one refresh per key on bounded refresh executor. Refresh is skipped if executor queue is full, next
+     * read of stale result tries again.
+     */
+    private void refreshInBackground(HQueryCache.Key key, Supplier<CompletableFuture<ProcessCache>> refresh) {
+        if (!refreshing.add(key)) {
+            return;
         }
-        String[] cmdParts = parts.toArray(new String[0]);
-        String command = String.join(", ", parts);
-        ProcessCache processCache;
-        if (hardwareQuery.cacheValid() > 0
-            && cache.containsKey(command)
-            && (System.currentTimeMillis() - cache.get(command).executedTime) / 1000 < cache.get(command).cacheValidInSec) {
-            processCache = cache.get(command);
-        } else {
-            processCache = new ProcessCache(hardwareQuery.cacheValid());
-            progressBar.progress(0,
-                    "Execute: '%s'. Command: '%s'".formatted(hardwareQuery.name(), command));
-            ProcessBuilder processBuilder;
-            StreamGobbler streamGobbler = new StreamGobbler(hardwareQuery.name(), message -> {
-                processCache.inputs.add(message);
-                if (!message.isEmpty()) {
-                    progressBar.progress(50D, message, false);
-                }
-            }, message -> {
-                processCache.errors.add(message);
-                if (!message.isEmpty()) {
-                    progressBar.progress(50D, message, true);
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    // joined by callers that miss cache meanwhile
+                    inFlight.execute(key, refresh).join();
+                } catch (RuntimeException ex) {
+                    logger.error("Unable to refresh cached result of '%s': %s".formatted(key.command(), getErrorMessage(ex)));
+                } finally {
+                    refreshing.remove(key);
                 }
             });
-            try {
-                File dir = null;
-                if (!StringUtils.isEmpty(hardwareQuery.dir())) {
-                    dir = new File(replaceStringWithArgs(hardwareQuery.dir(), args, method));
-                }
-                if (cmdParts.length > 1) {
-                    processBuilder = new ProcessBuilder(cmdParts);
-                } else if (SystemUtils.IS_OS_WINDOWS) {
-                    processBuilder = new ProcessBuilder("cmd.exe", "/C", cmdParts[0]);
-                } else {
-                    processBuilder = new ProcessBuilder("/bin/sh", "-c", cmdParts[0]);
-                }
-                processBuilder.directory(dir);
+        } catch (RejectedExecutionException ex) {
+            refreshing.remove(key);
+        }
+    }
 
-                Process process = processBuilder.start();
-                streamGobbler.stream(process);
+    private Object getCurlValue(CurlQuery curlQuery, ProcessCache processCache) {
+        if (!processCache.errors.isEmpty()) {
+            if (!curlQuery.ignoreOnError()) {
+                throw new HardwareException(processCache.errors, processCache.inputs, -1);
+            } else if (!curlQuery.valueOnError().isEmpty()) {
+                return curlQuery.valueOnError();
+            }
+        }
+        return processCache.response;
+    }
 
-                Thread.sleep(10);
-                if (!process.waitFor(maxWaitTimeout, SECONDS)) {
-                    process.destroy();
-                }
-                processCache.retValue = process.exitValue();
+    private CompletableFuture<ProcessCache> fetchCurlQuery(HQueryMethodPlan plan, String command, boolean async,
+                                                           boolean useCache) {
+        CurlQuery curlQuery = plan.getCurlQuery();
+        Class<?> returnType = plan.getResultType();
+        HQueryMetrics.Query query = plan.getMetricsQuery(curlQuery.value());
+        long start = System.nanoTime();
+        metrics.recordInFlight(query, 1);
+        CompletableFuture<ProcessCache> result;
+        if (useCache) {
+            CompletableFuture<Object> response;
+            try {
+                response = fetchValidatedCurl(plan, command, async);
             } catch (Exception ex) {
-                processCache.retValue = 1;
-                processCache.errors.add(getErrorMessage(ex));
-            } finally {
-                streamGobbler.stopStream(hardwareQuery.errorStreamWaitTimeoutMs(), 5000);
-                if (processCache.errors.isEmpty() && hardwareQuery.cacheValid() > 0) {
-                    cache.put(command, processCache);
-                }
+                response = CompletableFuture.failedFuture(ex);
+            }
+            result = response.handle((value, ex) -> toCurlResult(plan, command, value, ex));
+        } else if (async) {
+            result = Curl.getAsync(command, returnType, curlQuery.maxSecondsTimeout())
+                         .handle((value, ex) -> toCurlResult(plan, command, value, ex));
+        } else {
+            try {
+                result = completedFuture(toCurlResult(plan, command, Curl.getWithTimeout(command, returnType, curlQuery.maxSecondsTimeout()), null));
+            } catch (Exception ex) {
+                result = completedFuture(toCurlResult(plan, command, null, ex));
             }
         }
-
-        return handleCommandResult(hardwareQuery, method, errorsHandler, command, processCache.retValue, processCache.inputs,
-                processCache.errors);
+        return result.whenComplete((processCache, ex) -> {
+            metrics.recordInFlight(query, -1);
+            metrics.recordPhase(query, HQueryMetrics.Phase.PROCESS, System.nanoTime() - start);
+        });
     }
 
-    private ProgressBar getProgressBar(Object[] args, boolean printOutput) {
-        var progressBar = args == null || args.length == 0 ? null :
-                Stream.of(args).filter(arg -> arg instanceof ProgressBar)
-                        .map(arg -> (ProgressBar) arg).findAny().orElse(null);
-        if (progressBar == null) {
-            progressBar = (progress, message, isError) -> {
-                if (printOutput) {
-                    if (isError) {
-                        logger.error(message);
-                    } else {
-                        logger.info(message);
-                    }
-                }
-            };
+    /**
+     * Conditional GET with validators of stored response, which body is reused on 304. Stored response that is younger
+     * than cacheValidSec (i.e. fetched before restart) is used without request.
+     */
+    private CompletableFuture<Object> fetchValidatedCurl(HQueryMethodPlan plan, String command, boolean async) {
+        CurlQuery curlQuery = plan.getCurlQuery();
+        JavaType type = CurlTransport.REST_OBJECT_MAPPER.constructType(plan.getResultType());
+        CurlValidatorCache.Entry previous = curlCache.get(command);
+        if (previous != null && previous.isFresh(curlQuery.cacheValidSec())) {
+            return completedFuture(readCurlBody(previous, type));
         }
-        return progressBar;
+        return CurlTransport.getValidated(command, previous == null ? null : previous.etag(),
+                previous == null ? null : previous.lastModified(), Math.max(curlQuery.maxSecondsTimeout(), 1), async
+        ).thenApply(response -> readCurlBody(response.notModified() && previous != null
+                ? curlCache.revalidated(previous, response) : curlCache.put(command, response), type));
     }
 
-    private List<String> buildExecutableCommand(HardwareQuery hardwareQuery, Object[] args, Method method, Environment env, HQueryExecutor hQueryExecutor) {
-        List<String> parts = new ArrayList<>();
-        String[] values = hQueryExecutor.getValues(hardwareQuery);
-        Stream.of(values).filter(cmd -> !cmd.isEmpty()).forEach(cmd -> {
-            String argCmd = replaceStringWithArgs(cmd, args, method);
-            String envCmd = replaceValues(argCmd, env::getProperty);
-            parts.add(hQueryExecutor.updateCommand(envCmd));
-        });
-        return parts;
+    @SneakyThrows
+    private static Object readCurlBody(CurlValidatorCache.Entry entry, JavaType type) {
+        return CurlTransport.readBody(entry.body(), type, entry.contentType());
     }
 
-    private int getMaxWaitTimeout(HardwareQuery hardwareQuery, Object[] args, Method method) {
-        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
-        for (int i = 0; i < parameterAnnotations.length; i++) {
-            if (isParamHasAnnotation(parameterAnnotations, i, HQueryMaxWaitTimeout.class)) {
-                return (int) args[i];
+    private ProcessCache toCurlResult(HQueryMethodPlan plan, String command, Object result, Throwable ex) {
+        ProcessCache processCache = new ProcessCache();
+        if (ex == null) {
+            try {
+                processCache.response = plan.getCurlMapping().apply(result);
+                return processCache;
+            } catch (Exception mappingEx) {
+                ex = mappingEx;
             }
         }
-        return hardwareQuery.maxSecondsTimeout();
+        String msg = String.format("Error while execute curl command '%s'. Msg: '%s'%n", command, getErrorMessage(ex));
+        logger.error(msg);
+        processCache.errors.add(getErrorMessage(ex));
+        processCache.retValue = -1;
+
+        // to avoid NPE instantiate empty class
+        Class<?> returnType = plan.getResultType();
+        if (returnType.isAssignableFrom(JsonNode.class)) {
+            processCache.response = new ObjectMapper().createObjectNode().put("error", getErrorMessage(ex));
+        } else if (!returnType.isAssignableFrom(String.class)) {
+            processCache.response = newInstance(returnType);
+        }
+        return processCache;
     }
 
-    private Object returnOnDisableValue(Method method, Class<?> aClass) {
-        // in case we expect return num we ignore any errors
-        Class<?> returnType = method.getReturnType();
-        HardwareRepository hardwareRepository = aClass.getDeclaredAnnotation(HardwareRepository.class);
-        if (returnType.isPrimitive()) {
-            switch (returnType.getName()) {
-                case "int" -> {
-                    return hardwareRepository.intValueOnDisable();
-                }
-                case "boolean" -> {
-                    return hardwareRepository.boolValueOnDisable();
+    private Object handleFileQuery(HQueryMethodPlan plan, Object[] args, Environment env) {
+        FileQuery fileQuery = plan.getFileQuery();
+        String pathTemplate = SystemUtils.IS_OS_WINDOWS ? fileQuery.win() : fileQuery.value();
+        if (pathTemplate.isEmpty()) {
+            return returnOnDisableValue(plan);
+        }
+        String path = replaceValues(plan.replaceStringWithArgs(pathTemplate, args), env::getProperty);
+        HQueryMetrics.Query query = plan.getMetricsQuery(fileQuery.name());
+        long start = System.nanoTime();
+        HQueryCache.Key cacheKey = fileQuery.cacheValid() > 0 ? new HQueryCache.Key("file", path, "", OS) : null;
+        ProcessCache processCache = cacheKey == null ? null : (ProcessCache) cache.get(cacheKey);
+        if (cacheKey != null) {
+            metrics.recordCache(query, processCache != null);
+        }
+        if (processCache == null) {
+            // taken before read, so change during read invalidates entry right after it was cached
+            HQueryFileWatcher.Fingerprint fingerprint = cacheKey != null && fileQuery.watch() ? HQueryFileWatcher.stat(path) : null;
+            processCache = readFile(fileQuery, plan, args, path, query);
+            if (processCache.errors.isEmpty() && cacheKey != null) {
+                cache.put(cacheKey, processCache, fileQuery.cacheValid(), processCache.getWeight());
+                if (fingerprint != null) {
+                    getFileWatcher().watch(path, cacheKey, fingerprint.withContent(processCache.inputs));
                 }
             }
         }
-        if (returnType.isAssignableFrom(String.class)) {
-            return hardwareRepository.stringValueOnDisable();
-        }
-        return null;
+        ProcessCache result = processCache;
+        return parseResult(query, start, () -> handleCommandResult(ResultOptions.of(fileQuery), plan, path, result));
     }
 
-    private Object handleCommandResult(
-            HardwareQuery hardwareQuery,
-            Method method,
-            ErrorsHandler errorsHandler,
-            String command, int retValue, List<String> inputs, List<String> errors) {
-        Class<?> returnType = method.getReturnType();
+    /**
+     * Convert query output to method result and record PARSE phase and whole invocation
+     */
+    private Object parseResult(HQueryMetrics.Query query, long start, Supplier<Object> parser) {
+        long parseStart = System.nanoTime();
+        boolean success = false;
+        try {
+            Object result = parser.get();
+            success = true;
+            return result;
+        } finally {
+            long now = System.nanoTime();
+            metrics.recordPhase(query, HQueryMetrics.Phase.PARSE, now - parseStart);
+            metrics.recordInvocation(query, now - start, success);
+        }
+    }
 
-        // in case we expect return num we ignore any errors
-        if (returnType.isPrimitive()) {
-            switch (returnType.getName()) {
-                case "int" -> {
-                    return retValue;
-                }
-                case "boolean" -> {
-                    return retValue == 0;
-                }
-                case "void" -> {
-                    return null;
-                }
-            }
+    private synchronized HQueryFileWatcher getFileWatcher() {
+        if (fileWatcher == null) {
+            fileWatcher = new HQueryFileWatcher(cache, filePollInterval);
         }
+        return fileWatcher;
+    }
 
-        if (retValue != 0 && !hardwareQuery.redirectErrorsToInputs()) {
-            throwErrors(errorsHandler, errors);
-            if (errorsHandler != null) {
-                String error = errors.isEmpty() ? errorsHandler.onRetCodeError() : String.join("; ", errors);
-                if (errorsHandler.logError()) {
-                    logger.error(error);
-                }
-                if (errorsHandler.throwError()) {
-                    throw new IllegalStateException(error);
-                }
-            } else {
-                logger.error(String.format("Error while execute command '%s'. Code: '%s', Msg: '%s'%n", command, retValue,
-                        String.join(", ", errors)));
-                if (!hardwareQuery.ignoreOnError()) {
-                    throw new HardwareException(errors, inputs, retValue);
-                } else if (!hardwareQuery.valueOnError().isEmpty()) {
-                    return hardwareQuery.valueOnError();
-                }
+    /**
+     * Drop cached FileQuery results of files listed in @InvalidatesCache
+     */
+    private void invalidateFiles(HQueryMethodPlan plan, Object[] args, Environment env) {
+        for (String file : plan.getInvalidatesCache().files()) {
+            String path = replaceValues(plan.replaceStringWithArgs(file, args), env::getProperty);
+            cache.invalidate(new HQueryCache.Key("file", path, "", OS));
+            HQueryFileWatcher watcher;
+            synchronized (this) {
+                watcher = fileWatcher;
             }
-        } else {
-            if (!hardwareQuery.redirectErrorsToInputs()) {
-                for (String error : errors) {
-                    if (!error.isEmpty()) {
-                        logger.error(String.format("Error '%s'%n", error));
-                    }
-                }
-            } else {
-                inputs.addAll(errors);
+            if (watcher != null) {
+                watcher.invalidate(path);
             }
-            inputs = Collections.unmodifiableCollection(inputs).stream().map(String::trim).collect(Collectors.toList());
+        }
+    }
 
-            String joinedValue = String.join("", inputs);
-            if (returnType.isAssignableFrom(String.class)) {
-                return joinedValue;
-            }
+    private ProcessCache readFile(FileQuery fileQuery, HQueryMethodPlan plan, Object[] args, String path,
+                                  HQueryMetrics.Query query) {
+        ProcessCache processCache = new ProcessCache();
+        ProgressBar progressBar = getProgressBar(plan, args, fileQuery.printOutput());
+        long start = System.nanoTime();
+        try {
+            // readAllBytes handles /proc and /sys files that report zero size
+            byte[] content = Files.readAllBytes(Path.of(path));
+            metrics.recordPhase(query, HQueryMetrics.Phase.PROCESS, System.nanoTime() - start);
+            new String(content, StandardCharsets.UTF_8).lines().forEach(line -> {
+                processCache.inputs.add(line);
+                if (!line.isEmpty()) {
+                    progressBar.progress(50D, line, false);
+                }
+            });
+            metrics.recordOutput(query, processCache.inputs.size(), content.length);
+        } catch (IOException | InvalidPathException ex) {
+            processCache.retValue = 1;
+            processCache.errors.add(ex.getClass().getSimpleName() + ": " + getErrorMessage(ex));
+        }
+        return processCache;
+    }
 
-            if (returnType.isAssignableFrom(Integer.class)) {
-                return Integer.valueOf(joinedValue);
-            } else if (returnType.isAssignableFrom(Double.class)) {
-                return Double.parseDouble(joinedValue);
-            } else if (returnType.isAssignableFrom(Boolean.class)) {
-                return Boolean.parseBoolean(joinedValue);
-            }
+    private Object handleHardwareQuery(HardwareQuery hardwareQuery, Object[] args, HQueryMethodPlan plan, Environment env,
+                                       HQueryExecutor hQueryExecutor) {
+        long start = System.nanoTime();
+        List<String> parts = buildExecutableCommand(hardwareQuery, args, plan, env, hQueryExecutor);
+        if (parts.isEmpty()) {
+            return returnOnDisableValue(plan);
+        }
+        String command = String.join(", ", parts);
+        ProcessCache processCache = getProcessResult(hardwareQuery, args, plan, parts, command).join();
+        return parseResult(plan.getMetricsQuery(hardwareQuery.name()), start,
+                () -> handleCommandResult(ResultOptions.of(hardwareQuery), plan, command, processCache));
+    }
 
-            if (method.isAnnotationPresent(ListParse.class)) {
-                ListParse listParse = method.getAnnotation(ListParse.class);
-                String delimiter = listParse.delimiter();
-                List<List<String>> buckets = new ArrayList<>();
-                List<String> currentBucket = null;
+    private CompletableFuture<Object> handleHardwareQueryAsync(HardwareQuery hardwareQuery, Object[] args, HQueryMethodPlan plan,
+                                                               Environment env, HQueryExecutor hQueryExecutor) {
+        long start = System.nanoTime();
+        List<String> parts = buildExecutableCommand(hardwareQuery, args, plan, env, hQueryExecutor);
+        if (parts.isEmpty()) {
+            return completedFuture(returnOnDisableValue(plan));
+        }
+        String command = String.join(", ", parts);
+        return getProcessResult(hardwareQuery, args, plan, parts, command).thenApply(processCache ->
+                parseResult(plan.getMetricsQuery(hardwareQuery.name()), start,
+                        () -> handleCommandResult(ResultOptions.of(hardwareQuery), plan, command, processCache)));
+    }
 
-                for (String input : inputs) {
-                    if (input.matches(delimiter)) {
-                        currentBucket = new ArrayList<>();
-                        buckets.add(currentBucket);
-                    }
-                    if (currentBucket != null) {
-                        currentBucket.add(input);
-                    }
+    /**
+     * Returns cached process result, joins identical running process or starts new one
+     */
+    private CompletableFuture<ProcessCache> getProcessResult(HardwareQuery hardwareQuery, Object[] args, HQueryMethodPlan plan,
+                                                             List<String> parts, String command) {
+        String dir = StringUtils.isEmpty(hardwareQuery.dir()) ? "" : plan.replaceStringWithArgs(hardwareQuery.dir(), args);
+        HQueryCache.Key key = new HQueryCache.Key("hardware", command, dir, OS);
+        HQueryCache.Key cacheKey = hardwareQuery.cacheValid() > 0 ? key : null;
+        Consumer<Object> itemConsumer = plan.getItemConsumer(args);
+        int maxWaitTimeout = plan.getMaxWaitTimeout(hardwareQuery, args);
+        if (cacheKey != null) {
+            ProcessCache cached = getCached(cacheKey, plan.getMetricsQuery(hardwareQuery.name()), hardwareQuery.refreshAhead(),
+                    () -> executeCachedProcess(hardwareQuery, plan, parts, command, dir, maxWaitTimeout,
+                            (progress, message, isError) -> {}, null, cacheKey));
+            if (cached != null) {
+                if (itemConsumer != null && cached.response instanceof List<?> items) {
+                    items.forEach(itemConsumer);
                 }
-                Class<?> genericClass = listParse.clazz();
-                List<Object> result = new ArrayList<>();
-                for (List<String> bucket : buckets) {
-                    result.add(handleBucket(bucket, genericClass));
-                }
-                return result;
-            } else if (method.isAnnotationPresent(LineParse.class)) {
-                return handleBucket(inputs, method.getDeclaredAnnotation(LineParse.class), null);
-            } else if (method.isAnnotationPresent(LineParsers.class)) {
-                return handleBucket(inputs, method.getAnnotation(ListParse.LineParsers.class));
-            } else if (method.isAnnotationPresent(BooleanLineParse.class)) {
-                return handleBucket(inputs, method.getAnnotation(BooleanLineParse.class));
-            } else if (method.isAnnotationPresent(RawParse.class)) {
-                return handleBucket(inputs, method.getAnnotation(RawParse.class), null);
-            } else {
-                return handleBucket(inputs, returnType);
+                return completedFuture(cached);
             }
         }
-        return null;
+
+        ProgressBar progressBar = getProgressBar(plan, args, hardwareQuery.printOutput());
+        Supplier<CompletableFuture<ProcessCache>> execute = () ->
+                executeCachedProcess(hardwareQuery, plan, parts, command, dir, maxWaitTimeout, progressBar, itemConsumer,
+                        cacheKey);
+        // joiners of running execution would miss items, so calls with item consumer always run own process
+        boolean coalesce = hardwareQuery.coalesce() && itemConsumer == null;
+        return coalesce ? inFlight.execute(key, execute) : execute.get();
     }
 
-    @SneakyThrows
-    private Object handleBucket(List<String> input, Class<?> genericClass) {
-        if (Collection.class.isAssignableFrom(genericClass)) {
-            if (List.class.isAssignableFrom(genericClass)) {
-                return input;
-            } else if (Set.class.isAssignableFrom(genericClass)) {
-                return new HashSet<>(input);
-            } else {
-                throw new IllegalStateException("Unsupported return type: " + genericClass.getSimpleName());
+    private CompletableFuture<ProcessCache> executeCachedProcess(HardwareQuery hardwareQuery, HQueryMethodPlan plan,
+                                                                 List<String> parts, String command, String dir,
+                                                                 int maxWaitTimeout, ProgressBar progressBar,
+                                                                 @Nullable Consumer<Object> itemConsumer,
+                                                                 @Nullable HQueryCache.Key cacheKey) {
+        return executeProcess(hardwareQuery, plan, parts, command, dir, maxWaitTimeout, progressBar, plan.newItemDecoder(),
+                itemConsumer).thenApply(processCache -> {
+            if (processCache.errors.isEmpty() && cacheKey != null) {
+                putProcessCache(cacheKey, hardwareQuery, processCache);
             }
+            return processCache;
+        });
+    }
+
+    private void putProcessCache(HQueryCache.Key cacheKey, HardwareQuery hardwareQuery, ProcessCache processCache) {
+        cache.put(cacheKey, processCache, hardwareQuery.cacheValid(), hardwareQuery.staleWhileRevalidate(),
+                processCache.getWeight());
+        // decoded items may be of any type, only output lines are persisted
+        if (snapshot != null && hardwareQuery.cacheValid() >= snapshotMinTtl && processCache.response == null) {
+            snapshot.record(cacheKey, processCache.inputs, processCache.retValue, hardwareQuery.cacheValid());
         }
+    }
 
-        Object obj = newInstance(genericClass);
+    /**
+     * Start process and complete returned future once process exited (or killed after maxWaitTimeout) and its output
+     * streams are drained. Never completes exceptionally, errors are collected into ProcessCache.errors. If itemDecoder
+     * passed, input lines are decoded on the fly into ProcessCache.response list instead of being collected.
+     */
+    private CompletableFuture<ProcessCache> executeProcess(HardwareQuery hardwareQuery, HQueryMethodPlan plan,
+                                                           List<String> parts, String command,
+                                                           String dir, int maxWaitTimeout, ProgressBar progressBar,
+                                                           @Nullable HQueryParseProgram.StreamDecoder itemDecoder,
+                                                           @Nullable Consumer<Object> itemConsumer) {
+        ProcessCache processCache = new ProcessCache();
+        List<Object> items = new ArrayList<>();
+        Consumer<Object> itemHandler = itemConsumer == null ? items::add : item -> {
+            items.add(item);
+            itemConsumer.accept(item);
+        };
+        progressBar.progress(0,
+                "Execute: '%s'. Command: '%s'".formatted(hardwareQuery.name(), command));
+        ExecutionMetrics execution = new ExecutionMetrics(plan.getMetricsQuery(hardwareQuery.name()));
+        Consumer<String> inputConsumer = message -> {
+            execution.output(message);
+            if (itemDecoder == null) {
+                processCache.inputs.add(message);
+            } else {
+                itemDecoder.decode(message.trim(), itemHandler);
+            }
+            if (!message.isEmpty()) {
+                progressBar.progress(50D, message, false);
+            }
+        };
+        Consumer<String> errorConsumer = message -> {
+            execution.output(message);
+            processCache.errors.add(message);
+            if (!message.isEmpty()) {
+                progressBar.progress(50D, message, true);
+            }
+        };
 
-        boolean handleFields = false;
-        SplitParse splitParse = genericClass.getDeclaredAnnotation(SplitParse.class);
-        if (splitParse != null) {
-            for (String item : input) {
-                String[] split = item.split(splitParse.value());
-                for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, SplitParse.SplitParseIndex.class)) {
-                    int splitIndex = field.getDeclaredAnnotation(SplitParse.SplitParseIndex.class).index();
-                    if (splitIndex >= 0 && splitIndex < split.length) {
-                        String value = split[splitIndex].trim();
-                        FieldUtils.writeField(field, obj, handleType(value, field.getType()), true);
-                        handleFields = true;
+        if (shellPool != null && parts.size() == 1
+                && (hardwareQuery.persistentShell() || plan.getHardwareRepository().persistentShell())) {
+            execution.start();
+            CompletableFuture<Integer> shellResult = shellPool.execute(parts.get(0), dir, maxWaitTimeout, inputConsumer,
+                    errorConsumer);
+            // null if all shells are busy
+            if (shellResult != null) {
+                execution.spawned(true);
+                return shellResult.handleAsync((retValue, ex) -> {
+                    boolean timeout = false;
+                    if (ex == null) {
+                        processCache.retValue = retValue;
+                    } else {
+                        processCache.retValue = 1;
+                        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        timeout = cause instanceof TimeoutException;
+                        processCache.errors.add(timeout
+                                ? "Command not finished in " + maxWaitTimeout + " sec" : getErrorMessage(cause));
                     }
-                }
+                    execution.finish(System.nanoTime(), processCache.retValue, timeout);
+                    return finishItems(hardwareQuery, processCache, itemDecoder, itemHandler, items);
+                }, ioExecutor);
             }
         }
 
-        for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, RawParse.class)) {
-            Object value = handleBucket(input, field.getDeclaredAnnotation(RawParse.class), field);
-            FieldUtils.writeField(field, obj, value, true);
-            handleFields = true;
+        StreamGobbler streamGobbler = new StreamGobbler(ioExecutor, hardwareQuery.name(), inputConsumer, errorConsumer);
+        Process process;
+        try {
+            execution.start();
+            process = newProcessBuilder(parts, dir).start();
+            execution.spawned(false);
+            streamGobbler.stream(process);
+        } catch (Exception ex) {
+            processCache.retValue = 1;
+            processCache.errors.add(getErrorMessage(ex));
+            return completedFuture(processCache);
         }
 
-        for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, ListParse.LineParse.class)) {
-            Object value = handleBucket(input, field.getDeclaredAnnotation(ListParse.LineParse.class), field);
-            FieldUtils.writeField(field, obj, value, true);
-            handleFields = true;
-        }
+        return process.onExit()
+                      .completeOnTimeout(null, maxWaitTimeout, SECONDS)
+                      .thenApplyAsync(exited -> {
+                          long exitedAt = System.nanoTime();
+                          if (exited == null) {
+                              logger.error("Command '%s' not finished in %s sec. Destroy process".formatted(command, maxWaitTimeout));
+                              process.destroy();
+                          }
+                          try {
+                              processCache.retValue = process.exitValue();
+                          } catch (Exception ex) {
+                              processCache.retValue = 1;
+                              processCache.errors.add(getErrorMessage(ex));
+                          } finally {
+                              streamGobbler.stopStream(StreamGobbler.DRAIN_TIMEOUT_MS,
+                                      hardwareQuery.errorStreamWaitTimeoutMs() + hardwareQuery.inputStreamWaitTimeoutMs());
+                              execution.finish(exitedAt, processCache.retValue, exited == null);
+                          }
+                          return finishItems(hardwareQuery, processCache, itemDecoder, itemHandler, items);
+                      }, ioExecutor);
+    }
+
+    /**
+     * Output size and timings of one command execution. Counters are updated by stdout and stderr reader threads
+     */
+    private final class ExecutionMetrics {
+
+        private final HQueryMetrics.Query query;
+        private final LongAdder lines = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private long start;
 
-        for (Field field : FieldUtils.getFieldsListWithAnnotation(genericClass, ListParse.BooleanLineParse.class)) {
-            Object value = handleBucket(input, field.getDeclaredAnnotation(ListParse.BooleanLineParse.class));
-            FieldUtils.writeField(field, obj, value, true);
-            handleFields = true;
+        private ExecutionMetrics(HQueryMetrics.Query query) {
+            this.query = query;
         }
 
-        List<Field> listFields = FieldUtils.getFieldsListWithAnnotation(genericClass, ListParse.LineParsers.class);
-        for (Field field : listFields) {
-            ListParse.LineParsers lineParsers = field.getDeclaredAnnotation(ListParse.LineParsers.class);
-            Object value = handleBucket(input, lineParsers);
-            FieldUtils.writeField(field, obj, value, true);
+        private void start() {
+            start = System.nanoTime();
         }
 
-        if (!handleFields && listFields.isEmpty()) {
-            if (genericClass.isAssignableFrom(String.class)) {
-                return String.join("", input);
-            }
+        private void spawned(boolean pooledShell) {
+            metrics.recordSpawn(query, pooledShell);
+            metrics.recordInFlight(query, 1);
         }
-        if (handleFields) {
-            return obj;
+
+        private void output(String line) {
+            lines.increment();
+            bytes.add(line.length() + 1);
         }
 
-        throw new IllegalStateException("Unsupported return type: " + genericClass.getSimpleName());
+        /**
+         * @param exitedAt - nanoTime when process exited. Time after it is spent on draining output streams
+         */
+        private void finish(long exitedAt, int exitCode, boolean timeout) {
+            metrics.recordInFlight(query, -1);
+            metrics.recordPhase(query, HQueryMetrics.Phase.PROCESS, exitedAt - start);
+            metrics.recordPhase(query, HQueryMetrics.Phase.DRAIN, System.nanoTime() - exitedAt);
+            metrics.recordExit(query, exitCode, timeout);
+            metrics.recordOutput(query, lines.sum(), bytes.sum());
+        }
     }
 
-    private Object handleBucket(List<String> inputs, ListParse.LineParse lineParse, Field field) {
-        for (String input : inputs) {
-            if (input.matches(lineParse.value())) {
-                String group = findGroup(input, lineParse.value(), lineParse.group());
-                if (group != null) {
-                    return handleType(group.replaceAll("\"", ""), field.getType());
+    private static ProcessCache finishItems(HardwareQuery hardwareQuery, ProcessCache processCache,
+                                            @Nullable HQueryParseProgram.StreamDecoder itemDecoder,
+                                            Consumer<Object> itemHandler, List<Object> items) {
+        if (itemDecoder != null) {
+            if (hardwareQuery.redirectErrorsToInputs()) {
+                for (String error : processCache.errors) {
+                    itemDecoder.decode(error.trim(), itemHandler);
                 }
             }
+            itemDecoder.finish(itemHandler);
+            processCache.response = items;
         }
-        return null;
+        return processCache;
     }
 
-    private Object handleBucket(List<String> inputs, RawParse rawParse, Field field) {
-        return SystemUtils.IS_OS_WINDOWS ? newInstance(rawParse.win()).handle(inputs, field) :
-                newInstance(rawParse.nix()).handle(inputs, field);
+    /**
+     * Streaming methods are never cached or coalesced: every Stream/subscription runs own process
+     */
+    private Object handleStreamQuery(Environment env, boolean offline, HQueryExecutor hQueryExecutor, HQueryMethodPlan plan,
+                                     Object[] args) {
+        HardwareQuery hardwareQuery = plan.getHardwareQueries()[0];
+        List<String> parts = offline ? List.of() : buildExecutableCommand(hardwareQuery, args, plan, env, hQueryExecutor);
+        String command = String.join(", ", parts);
+        String dir = StringUtils.isEmpty(hardwareQuery.dir()) ? "" : plan.replaceStringWithArgs(hardwareQuery.dir(), args);
+        int maxWaitTimeout = plan.getMaxWaitTimeout(hardwareQuery, args);
+        ProgressBar progressBar = getProgressBar(plan, args, hardwareQuery.printOutput());
+        Supplier<HQueryLineSource> sourceFactory = () -> {
+            if (parts.isEmpty()) {
+                return null;
+            }
+            progressBar.progress(0, "Execute: '%s'. Command: '%s'".formatted(hardwareQuery.name(), command));
+            Process process;
+            try {
+                process = newProcessBuilder(parts, dir).start();
+            } catch (IOException ex) {
+                throw new HardwareException(List.of(getErrorMessage(ex)), List.of(), 1);
+            }
+            metrics.recordSpawn(plan.getMetricsQuery(hardwareQuery.name()), false);
+            return new HQueryLineSource(process, hardwareQuery, plan.newItemDecoder(), progressBar, maxWaitTimeout,
+                    ioExecutor, (retValue, errors) -> handleCommandError(ResultOptions.of(hardwareQuery), plan, command, retValue, List.of(), errors));
+        };
+        if (plan.getStreamType() == HQueryMethodPlan.StreamType.PUBLISHER) {
+            return new HQueryLinePublisher(sourceFactory, ioExecutor);
+        }
+        HQueryLineSource source = sourceFactory.get();
+        return source == null ? Stream.empty() : source.stream();
     }
 
-    private Object handleType(String value, Class<?> type) {
-        if (type.isAssignableFrom(Integer.class)) {
-            return Integer.valueOf(value);
-        } else if (type.isAssignableFrom(Double.class)) {
-            return Double.parseDouble(value);
+    private static ProcessBuilder newProcessBuilder(List<String> parts, String dir) {
+        ProcessBuilder processBuilder;
+        if (parts.size() > 1) {
+            processBuilder = new ProcessBuilder(parts);
+        } else if (SystemUtils.IS_OS_WINDOWS) {
+            processBuilder = new ProcessBuilder("cmd.exe", "/C", parts.get(0));
+        } else {
+            processBuilder = new ProcessBuilder("/bin/sh", "-c", parts.get(0));
         }
-
-        return value;
+        return processBuilder.directory(dir.isEmpty() ? null : new File(dir));
     }
 
-    private Object handleBucket(List<String> inputs, ListParse.BooleanLineParse lineParse) {
-        for (String input : inputs) {
-            if (input.matches(lineParse.value())) {
-                String group = findGroup(input, lineParse.value(), lineParse.group());
-                if (group != null) {
-                    if (group.equals(lineParse.when())) {
-                        return !lineParse.inverse();
+    private ProgressBar getProgressBar(HQueryMethodPlan plan, Object[] args, boolean printOutput) {
+        ProgressBar progressBar = plan.getProgressBar(args);
+        if (progressBar == null) {
+            progressBar = (progress, message, isError) -> {
+                if (printOutput) {
+                    if (isError) {
+                        logger.error(message);
+                    } else {
+                        logger.info(message);
                     }
                 }
-            }
+            };
         }
-        if (!lineParse.when().isEmpty()) {
-            return lineParse.inverse();
+        return progressBar;
+    }
+
+    private List<String> buildExecutableCommand(HardwareQuery hardwareQuery, Object[] args, HQueryMethodPlan plan, Environment env,
+                                                HQueryExecutor hQueryExecutor) {
+        long start = System.nanoTime();
+        List<String> parts = new ArrayList<>();
+        for (String cmd : hQueryExecutor.getValues(hardwareQuery)) {
+            if (!cmd.isEmpty()) {
+                String argCmd = plan.replaceStringWithArgs(cmd, args);
+                String envCmd = replaceValues(argCmd, env::getProperty);
+                parts.add(hQueryExecutor.updateCommand(envCmd));
+            }
         }
+        metrics.recordPhase(plan.getMetricsQuery(hardwareQuery.name()), HQueryMetrics.Phase.BUILD, System.nanoTime() - start);
+        return parts;
+    }
 
+    private Object returnOnDisableValue(HQueryMethodPlan plan) {
+        // in case we expect return num we ignore any errors
+        HardwareRepository hardwareRepository = plan.getHardwareRepository();
+        switch (plan.getReturnStrategy()) {
+            case INT -> {
+                return hardwareRepository.intValueOnDisable();
+            }
+            case BOOLEAN -> {
+                return hardwareRepository.boolValueOnDisable();
+            }
+            case STRING -> {
+                return hardwareRepository.stringValueOnDisable();
+            }
+        }
         return null;
     }
 
-    private Object handleBucket(List<String> inputs, ListParse.LineParsers lineParsers) {
-        for (ListParse.LineParse lineParse : lineParsers.value()) {
-            Object val = handleBucket(inputs, lineParse, null);
-            if (val != null) {
-                return val;
+    private Object handleCommandResult(
+            ResultOptions options,
+            HQueryMethodPlan plan,
+            String command, ProcessCache processCache) {
+        int retValue = processCache.retValue;
+        List<String> inputs = processCache.inputs;
+        List<String> errors = processCache.errors;
+        HQueryMethodPlan.ReturnStrategy returnStrategy = plan.getReturnStrategy();
+
+        // in case we expect return num we ignore any errors
+        switch (returnStrategy) {
+            case INT -> {
+                return retValue;
+            }
+            case BOOLEAN -> {
+                return retValue == 0;
+            }
+            case VOID -> {
+                return null;
+            }
+        }
+
+        if (retValue != 0 && !options.redirectErrorsToInputs()) {
+            return handleCommandError(options, plan, command, retValue, inputs, errors);
+        } else {
+            if (!options.redirectErrorsToInputs()) {
+                for (String error : errors) {
+                    if (!error.isEmpty()) {
+                        logger.error(String.format("Error '%s'%n", error));
+                    }
+                }
+            }
+            // @ListParse items already decoded while process was running
+            if (processCache.response instanceof List<?> items) {
+                return new ArrayList<>(items);
+            }
+            // inputs may belong to cached result, so never modify it in place
+            List<String> lines = new ArrayList<>(inputs.size() + errors.size());
+            for (String input : inputs) {
+                lines.add(input.trim());
+            }
+            if (options.redirectErrorsToInputs()) {
+                for (String error : errors) {
+                    lines.add(error.trim());
+                }
+            }
+
+            switch (returnStrategy) {
+                case STRING -> {
+                    return String.join("", lines);
+                }
+                case INTEGER -> {
+                    return Integer.valueOf(String.join("", lines));
+                }
+                case DOUBLE -> {
+                    return Double.parseDouble(String.join("", lines));
+                }
+                case BOOLEAN_OBJECT -> {
+                    return Boolean.parseBoolean(String.join("", lines));
+                }
+                default -> {
+                    return plan.getResultParser().parse(lines);
+                }
             }
         }
-        return null;
     }
 
-    private String findGroup(String input, String regexp, int group) {
-        Matcher m = Pattern.compile(regexp).matcher(input);
-        if (m.find()) {
-            return m.group(group);
+    private Object handleCommandError(ResultOptions options, HQueryMethodPlan plan, String command, int retValue,
+                                      List<String> inputs, List<String> errors) {
+        ErrorsHandler errorsHandler = plan.getErrorsHandler();
+        throwErrors(errorsHandler, errors);
+        if (errorsHandler != null) {
+            String error = errors.isEmpty() ? errorsHandler.onRetCodeError() : String.join("; ", errors);
+            if (errorsHandler.logError()) {
+                logger.error(error);
+            }
+            if (errorsHandler.throwError()) {
+                throw new IllegalStateException(error);
+            }
+        } else {
+            logger.error(String.format("Error while execute command '%s'. Code: '%s', Msg: '%s'%n", command, retValue,
+                    String.join(", ", errors)));
+            if (!options.ignoreOnError()) {
+                throw new HardwareException(errors, inputs, retValue);
+            } else if (!options.valueOnError().isEmpty()) {
+                return options.valueOnError();
+            }
         }
         return null;
     }
@@ -592,7 +993,15 @@ public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
         }
     }
 
-    private <T> List<Class<? extends T>> getClassesWithAnnotation() {
+    private List<Class<?>> getClassesWithAnnotation(Environment env, HQueryStartupTimeline.Step step) throws IOException {
+        if (!env.getProperty("hquery.repository-index.ignore", Boolean.class, false)) {
+            List<Class<?>> indexedClasses = readRepositoryIndex();
+            if (indexedClasses != null) {
+                step.tag("source", "index");
+                return indexedClasses;
+            }
+        }
+        step.tag("source", "scan");
         ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false) {
             @Override
             protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
@@ -601,10 +1010,10 @@ public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
         };
 
         scanner.addIncludeFilter(new AnnotationTypeFilter(HardwareRepository.class));
-        List<Class<? extends T>> foundClasses = new ArrayList<>();
+        List<Class<?>> foundClasses = new ArrayList<>();
         for (BeanDefinition bd : scanner.findCandidateComponents(basePackages)) {
             try {
-                foundClasses.add((Class<? extends T>) Class.forName(bd.getBeanClassName()));
+                foundClasses.add(Class.forName(bd.getBeanClassName()));
             } catch (ClassNotFoundException e) {
                 throw new RuntimeException(e);
             }
@@ -612,6 +1021,52 @@ public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
         return foundClasses;
     }
 
+    /**
+     * Read repositories from REPOSITORY_INDEX files instead of scanning classes. Index is used only if every classpath
+     * location that contains base package has it, i.e. application compiled without HardwareRepositoryProcessor
+     * falls back to scanning.
+     *
+     * @return repositories from base package or null if index is missing
+     */
+    private @Nullable List<Class<?>> readRepositoryIndex() throws IOException {
+        if (StringUtils.isBlank(basePackages)) {
+            return null;
+        }
+        ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+        Set<String> indexedLocations = new HashSet<>();
+        Set<String> classNames = new LinkedHashSet<>();
+        for (URL url : Collections.list(classLoader.getResources(REPOSITORY_INDEX))) {
+            indexedLocations.add(StringUtils.removeEnd(url.toString(), REPOSITORY_INDEX));
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+                reader.lines().map(String::trim)
+                      .filter(className -> className.startsWith(basePackages + "."))
+                      .forEach(classNames::add);
+            }
+        }
+        if (indexedLocations.isEmpty()) {
+            return null;
+        }
+        String packagePath = basePackages.replace('.', '/');
+        for (URL url : Collections.list(classLoader.getResources(packagePath))) {
+            String location = StringUtils.removeEnd(StringUtils.removeEnd(url.toString(), "/"), packagePath);
+            if (!indexedLocations.contains(location)) {
+                return null;
+            }
+        }
+        List<Class<?>> foundClasses = new ArrayList<>();
+        for (String className : classNames) {
+            try {
+                Class<?> aClass = Class.forName(className);
+                if (aClass.isAnnotationPresent(HardwareRepository.class)) {
+                    foundClasses.add(aClass);
+                }
+            } catch (ClassNotFoundException ignore) {
+                // stale index entry
+            }
+        }
+        return foundClasses;
+    }
+
     private String getErrorMessage(Throwable ex) {
         if (ex == null) {
             return null;
@@ -628,12 +1083,101 @@ public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
         return StringUtils.defaultString(cause.getMessage(), cause.toString());
     }
 
-    private boolean isParamHasAnnotation(Annotation[][] apiParams, int i, Class<? extends Annotation> aClass) {
-        return apiParams.length > i && apiParams[i] != null && apiParams[i].length > 0
-               && aClass.isAssignableFrom(apiParams[i][0].getClass());
+    @Override
+    public void destroy() throws InterruptedException {
+        if (cache != null && customCache == null) {
+            cache.close();
+        }
+        if (shellPool != null) {
+            shellPool.close();
+        }
+        if (jmxMetrics != null) {
+            jmxMetrics.close();
+        }
+        synchronized (this) {
+            if (fileWatcher != null) {
+                fileWatcher.close();
+            }
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        // changes after last scheduled write would be lost on shutdown of ioExecutor
+        if (snapshot != null) {
+            snapshot.write();
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdown();
+            if (!ioExecutor.awaitTermination(ioShutdownTimeoutMs, MILLISECONDS)) {
+                ioExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Validators and bodies of cached CurlQuery responses, stored in hquery.curl-cache.dir (~/.cache/hquery/curl by
+     * default) or in memory if property is empty
+     */
+    private CurlValidatorCache buildCurlCache(Environment env) {
+        String defaultDir = Path.of(System.getProperty("user.home"), ".cache", "hquery", "curl").toString();
+        String dir = env.getProperty("hquery.curl-cache.dir", defaultDir);
+        CurlValidatorCache curlCache = new CurlValidatorCache(dir.isBlank() ? null : Path.of(dir),
+                env.getProperty("hquery.curl-cache.max-entries", Integer.class, 256), logger);
+        ioExecutor.execute(curlCache::prune);
+        return curlCache;
     }
 
-    private HQueryExecutor buildHQueryExecutor() {
+    /**
+     * Load results of HardwareQuery with cacheValid not less than hquery.snapshot.min-ttl (1 hour by default) stored by
+     * previous run of same boot into cache. File is hquery.snapshot.file (~/.cache/hquery/snapshot.bin by default),
+     * empty value disables snapshot
+     */
+    private @Nullable HQuerySnapshot loadSnapshot(Environment env) {
+        String defaultFile = Path.of(System.getProperty("user.home"), ".cache", "hquery", "snapshot.bin").toString();
+        String file = env.getProperty("hquery.snapshot.file", defaultFile);
+        snapshotMinTtl = env.getProperty("hquery.snapshot.min-ttl", Integer.class, 3600);
+        if (file.isBlank()) {
+            return null;
+        }
+        HQuerySnapshot snapshot = HQuerySnapshot.load(Path.of(file), ioExecutor, logger);
+        if (snapshot != null) {
+            long now = System.currentTimeMillis();
+            snapshot.getEntries().forEach((key, entry) -> {
+                ProcessCache processCache = new ProcessCache();
+                processCache.inputs.addAll(entry.inputs());
+                processCache.retValue = entry.retValue();
+                cache.put(key, processCache, entry.remainingSeconds(now), processCache.getWeight());
+            });
+        }
+        return snapshot;
+    }
+
+    /**
+     * Executor of background cache refreshes. Bounded, so refreshes of many expiring entries do not compete with
+     * caller queries. Threads are started on demand and stop when idle
+     */
+    private ThreadPoolExecutor buildRefreshExecutor(Environment env) {
+        int threads = Math.max(1, env.getProperty("hquery.cache.refresh-threads", Integer.class, 2));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, env.getProperty("hquery.cache.refresh-queue", Integer.class, 64))),
+                Thread.ofPlatform().name("hquery-refresh-", 0).daemon().factory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Executor that drains output of started processes. Virtual threads by default, or reusable platform threads if
+     * hquery.io.virtual-threads=false
+     */
+    private ExecutorService buildIoExecutor(Environment env) {
+        ioShutdownTimeoutMs = env.getProperty("hquery.io.shutdown-timeout-ms", Integer.class, 5000);
+        if (env.getProperty("hquery.io.virtual-threads", Boolean.class, true)) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("hquery-io-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(Thread.ofPlatform().name("hquery-io-", 0).daemon().factory());
+    }
+
+    private HQueryExecutor buildHQueryExecutor(HQueryStartupTimeline timeline) {
         if (SystemUtils.IS_OS_WINDOWS) {
             return new HQueryExecutor() {
                 @Override
@@ -648,9 +1192,9 @@ public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
             };
         } else {
             return new HQueryExecutor() {
-                private String pmInstall;
-                private String pmUninstall;
-                private String pmUpdate;
+                // install, uninstall and update commands. Resolved in background or on first command that needs them
+                private volatile CompletableFuture<String[]> packageManager;
+                private Supplier<String[]> packageManagerResolver;
 
                 @Override
                 public String[] getValues(HardwareQuery hardwareQuery) {
@@ -659,48 +1203,468 @@ public class HQueryFactoryPostProcessor implements BeanFactoryPostProcessor {
 
                 @Override
                 public String updateCommand(String cmd) {
-                    if (cmd.contains("$INSTALL")) {
-                        cmd = cmd.replace("$INSTALL", pmInstall);
+                    if (!cmd.contains("$INSTALL") && !cmd.contains("$UNINSTALL") && !cmd.contains("$UPDATE")) {
+                        return cmd;
                     }
-                    if (cmd.contains("$UNINSTALL")) {
-                        cmd = cmd.replace("$UNINSTALL", pmUninstall);
+                    String[] pm = getPackageManager();
+                    cmd = replacePlaceholder(cmd, "$INSTALL", pm[0]);
+                    cmd = replacePlaceholder(cmd, "$UNINSTALL", pm[1]);
+                    return replacePlaceholder(cmd, "$UPDATE", pm[2]);
+                }
+
+                private static String replacePlaceholder(String cmd, String placeholder, @Nullable String value) {
+                    if (!cmd.contains(placeholder)) {
+                        return cmd;
                     }
-                    if (cmd.contains("$UPDATE")) {
-                        cmd = cmd.replace("$UPDATE", pmUpdate);
+                    if (value == null) {
+                        throw new IllegalStateException(("Unable to run '%s': %s is unknown since project_manager is "
+                                + "install command. Set it to package manager name instead").formatted(cmd, placeholder));
                     }
-                    return cmd;
+                    return cmd.replace(placeholder, value);
                 }
 
+                /**
+                 * Package manager is detected from os-release by MachineHardwareRepository. It's not needed until
+                 * first install/uninstall/update command, so context refresh does not wait for it.
+                 * hquery.bootstrap.lazy=true postpones detection till such command, otherwise it is started in
+                 * background immediately.
+                 * project_manager/PACKAGEMANAGER skips detection: package manager name (i.e. apt-get) defines all
+                 * commands, install command (i.e. 'apt-get install -y') defines $INSTALL only.
+                 */
                 @Override
                 public void prepare(ConfigurableListableBeanFactory beanFactory, Environment env) {
-                    pmInstall = env.getProperty("project_manager", env.getProperty("PACKAGEMANAGER", ""));
-                    if (StringUtils.isEmpty(pmInstall)) {
-                        MachineHardwareRepository machineHardwareRepository = beanFactory.getBean(MachineHardwareRepository.class);
-                        String pm = machineHardwareRepository.getOs().getPackageManager();
-                        pmInstall = pm + " install -y";
-                        pmUninstall = pm + " remove -y";
-                        pmUpdate = "$PM update -y && $PM full-upgrade -y && $PM autoremove -y && $PM clean -y && $PM autoclean -y";
-                        if (pm.equals("apk")) {
-                            pmInstall = "apk add";
-                            pmUninstall = "apk del";
-                            pmUpdate = "apk update";
+                    String configured = env.getProperty("project_manager", env.getProperty("PACKAGEMANAGER", "")).trim();
+                    if (StringUtils.isNotEmpty(configured)) {
+                        packageManager = completedFuture(StringUtils.containsWhitespace(configured)
+                                ? new String[]{configured, null, null} : packageManagerCommands(configured));
+                        return;
+                    }
+                    // instance registered by repositories.register step. No by-type lookup, it must not run in
+                    // background while bean factory is being post processed
+                    Object repository = beanFactory.getSingleton(MachineHardwareRepository.class.getSimpleName());
+                    packageManagerResolver = () -> {
+                        if (!(repository instanceof MachineHardwareRepository machineHardwareRepository)) {
+                            throw new IllegalStateException("Unable to detect package manager: MachineHardwareRepository "
+                                    + "is not registered. Set project_manager property");
+                        }
+                        try (HQueryStartupTimeline.Step step = timeline.startBackground("package-manager")) {
+                            String[] result = resolvePackageManager(machineHardwareRepository);
+                            step.tag("install", result[0]);
+                            return result;
+                        }
+                    };
+                    if (!env.getProperty("hquery.bootstrap.lazy", Boolean.class, false)) {
+                        packageManager = CompletableFuture.supplyAsync(packageManagerResolver, ioExecutor);
+                    }
+                }
+
+                private String[] getPackageManager() {
+                    CompletableFuture<String[]> future = packageManager;
+                    if (future == null || future.isCompletedExceptionally()) {
+                        synchronized (this) {
+                            future = packageManager;
+                            if (future == null || future.isCompletedExceptionally()) {
+                                future = new CompletableFuture<>();
+                                packageManager = future;
+                                try {
+                                    future.complete(packageManagerResolver.get());
+                                } catch (RuntimeException ex) {
+                                    future.completeExceptionally(ex);
+                                    throw ex;
+                                }
+                            }
                         }
-                        logger.info("OS: " + machineHardwareRepository.getOs());
-                        logger.info("PM: " + pmInstall);
                     }
+                    try {
+                        return future.join();
+                    } catch (CompletionException ex) {
+                        throw ex.getCause() instanceof RuntimeException runtimeException ? runtimeException : ex;
+                    }
+                }
+
+                private String[] resolvePackageManager(MachineHardwareRepository machineHardwareRepository) {
+                    String pm = machineHardwareRepository.getOs().getPackageManager();
+                    String[] commands = packageManagerCommands(pm);
+                    logger.info("OS: " + machineHardwareRepository.getOs());
+                    logger.info("PM: " + commands[0]);
+                    return commands;
+                }
+
+                private static String[] packageManagerCommands(String pm) {
+                    String pmInstall = pm + " install -y";
+                    String pmUninstall = pm + " remove -y";
+                    String pmUpdate = "$PM update -y && $PM full-upgrade -y && $PM autoremove -y && $PM clean -y && $PM autoclean -y";
+                    if (pm.equals("apk")) {
+                        pmInstall = "apk add";
+                        pmUninstall = "apk del";
+                        pmUpdate = "apk update";
+                    }
+                    return new String[]{pmInstall, pmUninstall, pmUpdate};
                 }
             };
         }
     }
 
-    @RequiredArgsConstructor
+    /**
+     * Invocation handler of repository proxy or dispatcher of generated implementation. HQueryBatch finds it via
+     * Proxy.getInvocationHandler or HQueryDispatcher.Owner
+     */
+    final class RepositoryHandler implements InvocationHandler, HQueryDispatcher {
+
+        private final Class<?> repositoryClass;
+        private final String description;
+        private final Environment env;
+        private final boolean offline;
+        private final HQueryExecutor hQueryExecutor;
+        private final Map<Method, HQueryMethodPlan> plans = new ConcurrentHashMap<>();
+        // methods of generated implementation by dispatch index
+        private Method[] dispatchMethods;
+        private HQueryMethodPlan[] dispatchPlans;
+
+        private RepositoryHandler(Class<?> repositoryClass, Environment env, boolean offline, HQueryExecutor hQueryExecutor) {
+            this.repositoryClass = repositoryClass;
+            this.description = repositoryClass.getSimpleName() + ":"
+                    + repositoryClass.getDeclaredAnnotation(HardwareRepository.class).description();
+            this.env = env;
+            this.offline = offline;
+            this.hQueryExecutor = hQueryExecutor;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("toString")) {
+                return description;
+            }
+            return invoke(getPlan(proxy, method), args);
+        }
+
+        @Override
+        public Object dispatch(int methodIndex, Object[] args) {
+            return invoke(dispatchPlans[methodIndex], args);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+
+        private void indexPlans() {
+            if (dispatchMethods != null) {
+                dispatchPlans = new HQueryMethodPlan[dispatchMethods.length];
+                for (int i = 0; i < dispatchMethods.length; i++) {
+                    dispatchPlans[i] = plans.get(dispatchMethods[i]);
+                }
+            }
+        }
+
+        private Object invoke(HQueryMethodPlan plan, Object[] args) {
+            if (plan.getInvalidatesCache() == null) {
+                return handleQuery(env, offline, hQueryExecutor, plan, args);
+            }
+            Object result;
+            try {
+                result = handleQuery(env, offline, hQueryExecutor, plan, args);
+            } catch (RuntimeException ex) {
+                invalidateFiles(plan, args, env);
+                throw ex;
+            }
+            if (result instanceof CompletableFuture<?> future) {
+                return future.whenComplete((value, ex) -> invalidateFiles(plan, args, env));
+            }
+            invalidateFiles(plan, args, env);
+            return result;
+        }
+
+        HQueryMethodPlan getPlan(Object proxy, Method method) {
+            return plans.computeIfAbsent(method, m -> HQueryMethodPlan.build(repositoryClass, m, proxy));
+        }
+
+        /**
+         * Run all single-command hardware queries of calls in one process. Other calls are executed one by one.
+         */
+        void executeBatch(Object proxy, List<HQueryBatch.Call> calls) {
+            List<BatchEntry> entries = new ArrayList<>();
+            for (HQueryBatch.Call call : calls) {
+                HQueryMethodPlan plan = getPlan(proxy, call.getMethod());
+                Object[] args = call.getArgs();
+                if (offline || SystemUtils.IS_OS_WINDOWS || plan.isAsync() || plan.getStreamType() != null
+                        || plan.getCurlQuery() != null || plan.getHardwareQueries().length != 1
+                        || plan.getInvalidatesCache() != null) {
+                    call.complete(() -> invoke(proxy, call.getMethod(), args));
+                    continue;
+                }
+                HardwareQuery hardwareQuery = plan.getHardwareQueries()[0];
+                List<String> parts = buildExecutableCommand(hardwareQuery, args, plan, env, hQueryExecutor);
+                if (parts.size() != 1) {
+                    call.complete(() -> handleHardwareQuery(hardwareQuery, args, plan, env, hQueryExecutor));
+                    continue;
+                }
+                String command = parts.get(0);
+                String dir = StringUtils.isEmpty(hardwareQuery.dir()) ? "" : plan.replaceStringWithArgs(hardwareQuery.dir(), args);
+                HQueryCache.Key cacheKey = hardwareQuery.cacheValid() > 0 ? new HQueryCache.Key("hardware", command, dir, OS) : null;
+                HQueryMetrics.Query query = plan.getMetricsQuery(hardwareQuery.name());
+                int maxWaitTimeout = plan.getMaxWaitTimeout(hardwareQuery, args);
+                ProcessCache cached = cacheKey == null ? null : getCached(cacheKey, query, hardwareQuery.refreshAhead(),
+                        () -> executeCachedProcess(hardwareQuery, plan, parts, command, dir, maxWaitTimeout,
+                                (progress, message, isError) -> {}, null, cacheKey));
+                if (cached != null) {
+                    long start = System.nanoTime();
+                    call.complete(() -> parseResult(query, start,
+                            () -> handleCommandResult(ResultOptions.of(hardwareQuery), plan, command, cached)));
+                } else {
+                    entries.add(new BatchEntry(call, plan, hardwareQuery, command, dir, cacheKey, maxWaitTimeout));
+                }
+            }
+            // queries are combined only with queries that run in same kind of process
+            for (boolean persistentShell : new boolean[]{false, true}) {
+                List<BatchEntry> group = entries.stream().filter(entry -> entry.persistentShell() == persistentShell).toList();
+                if (group.size() == 1) {
+                    BatchEntry entry = group.get(0);
+                    entry.call.complete(() -> handleHardwareQuery(entry.hardwareQuery, entry.call.getArgs(), entry.plan,
+                            env, hQueryExecutor));
+                } else if (!group.isEmpty()) {
+                    executeBatchEntries(group);
+                }
+            }
+        }
+
+        /**
+         * Queries run one after another in one script, which is killed after the longest maxWaitTimeout of them.
+         * Output is passed to ProgressBar of query that produced it, with query printOutput option.
+         */
+        private void executeBatchEntries(List<BatchEntry> entries) {
+            String sentinelPrefix = "__hquery_batch_" + UUID.randomUUID().toString().replace("-", "") + "_";
+            StringBuilder script = new StringBuilder();
+            int maxWaitTimeout = 0;
+            List<ProgressBar> progressBars = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                BatchEntry entry = entries.get(i);
+                script.append(HQueryShellPool.buildScript(entry.command, entry.dir, sentinelPrefix + i + ":"));
+                maxWaitTimeout = Math.max(maxWaitTimeout, entry.maxWaitTimeout);
+                progressBars.add(getProgressBar(entry.plan, entry.call.getArgs(), entry.hardwareQuery.printOutput()));
+            }
+            BatchEntry first = entries.get(0);
+            // process level metrics of whole batch are recorded for first query
+            long start = System.nanoTime();
+            ProcessCache batchCache = executeProcess(first.hardwareQuery, first.plan, List.of(script.toString()),
+                    "batch of " + entries.size() + " queries", "", maxWaitTimeout,
+                    new BatchProgressBar(entries, progressBars, sentinelPrefix), null, null).join();
+
+            Iterator<String> inputs = batchCache.inputs.iterator();
+            Iterator<String> errors = batchCache.errors.iterator();
+            for (int i = 0; i < entries.size(); i++) {
+                BatchEntry entry = entries.get(i);
+                String sentinel = sentinelPrefix + i + ":";
+                ProcessCache processCache = new ProcessCache();
+                Integer retValue = readUntilSentinel(inputs, sentinel, processCache.inputs);
+                readUntilSentinel(errors, sentinel, processCache.errors);
+                if (retValue == null) {
+                    // batch process was killed or failed before this query finished
+                    processCache.retValue = batchCache.retValue == 0 ? 1 : batchCache.retValue;
+                    processCache.errors.addAll(batchCache.errors);
+                } else {
+                    processCache.retValue = retValue;
+                    if (processCache.errors.isEmpty() && entry.cacheKey != null) {
+                        putProcessCache(entry.cacheKey, entry.hardwareQuery, processCache);
+                    }
+                }
+                entry.call.complete(() -> parseResult(entry.plan.getMetricsQuery(entry.hardwareQuery.name()), start,
+                        () -> handleCommandResult(ResultOptions.of(entry.hardwareQuery), entry.plan, entry.command, processCache)));
+            }
+        }
+
+        /**
+         * Move lines to target until sentinel line found.
+         *
+         * @return exit code from sentinel line or null if no sentinel in lines
+         */
+        private static Integer readUntilSentinel(Iterator<String> lines, String sentinel, List<String> target) {
+            while (lines.hasNext()) {
+                String line = lines.next();
+                int index = line.indexOf(sentinel);
+                if (index >= 0) {
+                    if (index > 0) {
+                        target.add(line.substring(0, index));
+                    }
+                    try {
+                        return Integer.parseInt(line.substring(index + sentinel.length()).trim());
+                    } catch (NumberFormatException ex) {
+                        return 1;
+                    }
+                }
+                target.add(line);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Error handling options of HardwareQuery/FileQuery
+     */
+    private record ResultOptions(boolean redirectErrorsToInputs, boolean ignoreOnError, String valueOnError) {
+
+        static ResultOptions of(HardwareQuery hardwareQuery) {
+            return new ResultOptions(hardwareQuery.redirectErrorsToInputs(), hardwareQuery.ignoreOnError(),
+                    hardwareQuery.valueOnError());
+        }
+
+        static ResultOptions of(FileQuery fileQuery) {
+            return new ResultOptions(false, fileQuery.ignoreOnError(), fileQuery.valueOnError());
+        }
+    }
+
+    /**
+     * Cache used by repositories and registered as hQueryCache bean if there is no custom one. Invalidated results are
+     * dropped from snapshot too, so they are not loaded again after restart. Custom cache bean is not wrapped: results
+     * invalidated directly on it stay in snapshot till it expires
+     */
+    private final class SnapshotCache implements HQueryCache {
+
+        private final HQueryCache delegate;
+
+        private SnapshotCache(HQueryCache delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public @Nullable Object get(Key key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public @Nullable Lookup lookup(Key key) {
+            return delegate.lookup(key);
+        }
+
+        @Override
+        public void put(Key key, Object value, int ttlSeconds, long weight) {
+            delegate.put(key, value, ttlSeconds, weight);
+        }
+
+        @Override
+        public void put(Key key, Object value, int ttlSeconds, int staleSeconds, long weight) {
+            delegate.put(key, value, ttlSeconds, staleSeconds, weight);
+        }
+
+        @Override
+        public void invalidate(Key key) {
+            delegate.invalidate(key);
+            HQuerySnapshot current = snapshot;
+            if (current != null) {
+                current.remove(key);
+            }
+        }
+
+        @Override
+        public void invalidateAll() {
+            delegate.invalidateAll();
+            HQuerySnapshot current = snapshot;
+            if (current != null) {
+                current.clear();
+            }
+        }
+
+        @Override
+        public Stats getStats() {
+            return delegate.getStats();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    private record BatchEntry(HQueryBatch.Call call, HQueryMethodPlan plan, HardwareQuery hardwareQuery, String command,
+                              String dir, HQueryCache.Key cacheKey, int maxWaitTimeout) {
+
+        boolean persistentShell() {
+            return hardwareQuery.persistentShell() || plan.getHardwareRepository().persistentShell();
+        }
+    }
+
+    /**
+     * Routes output of batch script to ProgressBar of query that is running. Sentinel line printed after every query
+     * switches to next one; stdout and stderr are read by own threads and switch independently.
+     */
+    private static final class BatchProgressBar implements ProgressBar {
+
+        private final List<BatchEntry> entries;
+        private final List<ProgressBar> progressBars;
+        private final String sentinelPrefix;
+        private int input;
+        private int error;
+
+        private BatchProgressBar(List<BatchEntry> entries, List<ProgressBar> progressBars, String sentinelPrefix) {
+            this.entries = entries;
+            this.progressBars = progressBars;
+            this.sentinelPrefix = sentinelPrefix;
+            start(0);
+        }
+
+        @Override
+        public void progress(double progress, @Nullable String message, boolean isError) {
+            if (progress == 0 || message == null) {
+                // start of whole batch, every query reports own start
+                return;
+            }
+            int index = isError ? error : input;
+            if (index >= entries.size()) {
+                return;
+            }
+            int sentinel = message.indexOf(sentinelPrefix);
+            if (sentinel < 0) {
+                progressBars.get(index).progress(progress, message, isError);
+                return;
+            }
+            if (sentinel > 0) {
+                progressBars.get(index).progress(progress, message.substring(0, sentinel), isError);
+            }
+            if (isError) {
+                error++;
+            } else {
+                input++;
+                start(input);
+            }
+        }
+
+        private void start(int index) {
+            if (index < entries.size()) {
+                BatchEntry entry = entries.get(index);
+                progressBars.get(index).progress(0,
+                        "Execute: '%s'. Command: '%s'".formatted(entry.hardwareQuery.name(), entry.command), false);
+            }
+        }
+    }
+
     private static class ProcessCache {
 
-        final int cacheValidInSec;
+        // weight of non-string curl responses which size is unknown
+        private static final int OBJECT_RESPONSE_WEIGHT = 1024;
+
         final List<String> errors = new ArrayList<>();
         final List<String> inputs = new ArrayList<>();
         int retValue;
         Object response;
-        long executedTime = System.currentTimeMillis();
+
+        long getWeight() {
+            long weight;
+            if (response == null) {
+                weight = 0;
+            } else if (response instanceof String str) {
+                weight = str.length();
+            } else if (response instanceof Collection<?> items) {
+                weight = (long) items.size() * OBJECT_RESPONSE_WEIGHT;
+            } else {
+                weight = OBJECT_RESPONSE_WEIGHT;
+            }
+            for (String input : inputs) {
+                weight += input.length();
+            }
+            for (String error : errors) {
+                weight += error.length();
+            }
+            return weight;
+        }
     }
 }
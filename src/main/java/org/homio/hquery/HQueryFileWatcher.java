@@ -0,0 +1,282 @@
+package org.homio.hquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.Nullable;
+
+/**
+ * Evicts cached results of FileQuery methods when file they were read from changes. Files on regular file systems are
+ * watched by WatchService registered on parent directory (and on directory of symlink target). Pseudo file systems
+ * like /proc and /sys do not emit change events, so such files are polled every pollInterval by modification time,
+ * size and content hash. Registration fires once: cache keys are invalidated and file is not watched any more until
+ * result is cached again.
+ */
+final class HQueryFileWatcher implements AutoCloseable {
+
+    private static final Set<String> POLLED_FILE_STORES = Set.of("proc", "sysfs", "devtmpfs", "debugfs", "tracefs",
+            "configfs", "securityfs", "cgroup", "cgroup2");
+
+    private final HQueryCache cache;
+    private final long pollIntervalMs;
+    private final @Nullable WatchService watchService;
+    // same Watch is registered by file path and by symlink target path
+    private final Map<Path, Watch> watches = new ConcurrentHashMap<>();
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    HQueryFileWatcher(HQueryCache cache, int pollIntervalSeconds) {
+        this.cache = cache;
+        this.pollIntervalMs = TimeUnit.SECONDS.toMillis(Math.max(1, pollIntervalSeconds));
+        this.watchService = newWatchService();
+        this.thread = new Thread(this::run, "hquery-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return modification time and size of file or null if file not exists or path is invalid
+     */
+    static @Nullable Fingerprint stat(String file) {
+        try {
+            return stat(Path.of(file));
+        } catch (InvalidPathException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Invalidate key when file changes.
+     *
+     * @param fingerprint - state of file taken before it was read, with hash of read lines
+     */
+    void watch(String file, HQueryCache.Key key, Fingerprint fingerprint) {
+        Path path = Path.of(file).toAbsolutePath().normalize();
+        Watch watch = watches.computeIfAbsent(path, p -> newWatch(p, fingerprint));
+        for (int i = 1; i < watch.paths.size(); i++) {
+            watches.putIfAbsent(watch.paths.get(i), watch);
+        }
+        watch.keys.add(key);
+        // file may be changed after it was read but before directory was registered
+        if (!watch.fingerprint.matches(fingerprint, watch.polled) || watch.isChanged()) {
+            fire(watch);
+        }
+    }
+
+    /**
+     * Invalidate all keys watching file immediately
+     */
+    void invalidate(String file) {
+        try {
+            Watch watch = watches.get(Path.of(file).toAbsolutePath().normalize());
+            if (watch != null) {
+                fire(watch);
+            }
+        } catch (InvalidPathException ignore) {
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignore) {
+            }
+        }
+        watches.clear();
+    }
+
+    private Watch newWatch(Path path, Fingerprint fingerprint) {
+        List<Path> paths = new ArrayList<>(List.of(path));
+        try {
+            Path realPath = path.toRealPath();
+            if (!realPath.equals(path)) {
+                paths.add(realPath);
+            }
+        } catch (IOException ignore) {
+        }
+        boolean polled = false;
+        for (Path item : paths) {
+            polled |= !register(item);
+        }
+        return new Watch(paths, fingerprint, polled);
+    }
+
+    /**
+     * @return false if file must be polled
+     */
+    private boolean register(Path path) {
+        Path dir = path.getParent();
+        if (watchService == null || dir == null) {
+            return false;
+        }
+        try {
+            if (POLLED_FILE_STORES.contains(Files.getFileStore(dir).type())) {
+                return false;
+            }
+            if (directories.add(dir)) {
+                try {
+                    dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                } catch (IOException | RuntimeException ex) {
+                    directories.remove(dir);
+                    throw ex;
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private void fire(Watch watch) {
+        for (Path path : watch.paths) {
+            watches.remove(path, watch);
+        }
+        for (HQueryCache.Key key : watch.keys) {
+            cache.invalidate(key);
+        }
+    }
+
+    private void run() {
+        long nextPoll = System.currentTimeMillis() + pollIntervalMs;
+        while (!closed) {
+            try {
+                long wait = Math.max(1, nextPoll - System.currentTimeMillis());
+                if (watchService == null) {
+                    Thread.sleep(wait);
+                } else {
+                    WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        handleEvents(key);
+                    }
+                }
+                if (System.currentTimeMillis() >= nextPoll) {
+                    pollChanges();
+                    nextPoll = System.currentTimeMillis() + pollIntervalMs;
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            } catch (RuntimeException ignore) {
+                // keep watching other files
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+            } else {
+                Watch watch = watches.get(dir.resolve((Path) event.context()));
+                if (watch != null) {
+                    fire(watch);
+                }
+            }
+        }
+        boolean valid = key.reset();
+        if (!valid) {
+            directories.remove(dir);
+        }
+        if (overflow || !valid) {
+            for (Watch watch : new HashSet<>(watches.values())) {
+                if (watch.paths.stream().anyMatch(path -> dir.equals(path.getParent()))) {
+                    fire(watch);
+                }
+            }
+        }
+    }
+
+    private void pollChanges() {
+        for (Watch watch : new HashSet<>(watches.values())) {
+            if (watch.polled && watch.isChanged()) {
+                fire(watch);
+            }
+        }
+    }
+
+    private static @Nullable WatchService newWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            // i.e. inotify instances limit reached. Fallback to polling
+            return null;
+        }
+    }
+
+    private static @Nullable Fingerprint stat(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Fingerprint(attributes.lastModifiedTime().toMillis(), attributes.size(), 0);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @param contentHash - hash of file lines list. Compared only for polled files
+     */
+    record Fingerprint(long modified, long size, int contentHash) {
+
+        Fingerprint withContent(List<String> lines) {
+            return new Fingerprint(modified, size, lines.hashCode());
+        }
+
+        private boolean matches(@Nullable Fingerprint other, boolean compareContent) {
+            return other != null && modified == other.modified && size == other.size
+                    && (!compareContent || contentHash == other.contentHash);
+        }
+    }
+
+    private static final class Watch {
+
+        private final List<Path> paths;
+        private final Fingerprint fingerprint;
+        private final boolean polled;
+        private final Set<HQueryCache.Key> keys = ConcurrentHashMap.newKeySet();
+
+        private Watch(List<Path> paths, Fingerprint fingerprint, boolean polled) {
+            this.paths = paths;
+            this.fingerprint = fingerprint;
+            this.polled = polled;
+        }
+
+        private boolean isChanged() {
+            Path path = paths.get(0);
+            Fingerprint current = stat(path);
+            if (current != null && polled) {
+                try {
+                    current = current.withContent(new String(Files.readAllBytes(path), UTF_8).lines().toList());
+                } catch (IOException ex) {
+                    return true;
+                }
+            }
+            return !fingerprint.matches(current, polled);
+        }
+    }
+}
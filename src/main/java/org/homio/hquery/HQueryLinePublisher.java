@@ -0,0 +1,129 @@
+package org.homio.hquery;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cold publisher over HQueryLineSource. Every subscriber starts own process on first request, items are read only
+ * while subscriber has outstanding demand and process is killed on cancel. Factory may return null to complete
+ * subscriber without starting any process.
+ */
+final class HQueryLinePublisher implements Flow.Publisher<Object> {
+
+    private final Supplier<HQueryLineSource> sourceFactory;
+    private final Executor executor;
+
+    HQueryLinePublisher(Supplier<HQueryLineSource> sourceFactory, Executor executor) {
+        this.sourceFactory = sourceFactory;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+        LineSubscription subscription = new LineSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class LineSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super Object> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // number of pending drain requests. Only one drain loop runs at a time
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile HQueryLineSource source;
+        private volatile boolean cancelled;
+        private boolean started;
+        private Throwable invalidRequest;
+
+        private LineSubscription(Flow.Subscriber<? super Object> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                requested.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            }
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            HQueryLineSource current = source;
+            if (current != null) {
+                current.close();
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            while (true) {
+                long emitted = 0;
+                long demand = requested.get();
+                while (emitted != demand) {
+                    Object item;
+                    try {
+                        if (cancelled) {
+                            return;
+                        }
+                        if (invalidRequest != null) {
+                            throw invalidRequest;
+                        }
+                        if (!started) {
+                            started = true;
+                            source = sourceFactory.get();
+                            if (cancelled) {
+                                // cancel() could miss source that was not assigned yet
+                                terminate();
+                                return;
+                            }
+                        }
+                        // null source means query is disabled for current environment
+                        item = source == null ? null : source.next();
+                    } catch (Throwable ex) {
+                        terminate();
+                        subscriber.onError(ex);
+                        return;
+                    }
+                    if (item == null) {
+                        terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    subscriber.onNext(item);
+                    emitted++;
+                }
+                if (cancelled) {
+                    return;
+                }
+                if (invalidRequest != null) {
+                    terminate();
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void terminate() {
+            cancelled = true;
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.homio.hquery;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.homio.hquery.api.HardwareQuery;
+
+/**
+ * Pull based reader of running process output for streaming repository methods. Lines are read from the process only
+ * when consumer asks for the next item, so slow consumer stops the process on a full pipe instead of buffering output
+ * in memory. Error stream is drained in background.
+ */
+final class HQueryLineSource implements AutoCloseable {
+
+    // time given to process to exit on SIGTERM before it's killed
+    static final int KILL_TIMEOUT_MS = 2000;
+
+    private final Process process;
+    private final HardwareQuery hardwareQuery;
+    private final HQueryParseProgram.StreamDecoder decoder;
+    private final ProgressBar progressBar;
+    private final ExitHandler exitHandler;
+    private final BufferedReader reader;
+    private final Future<?> errorFuture;
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private volatile boolean closed;
+    private boolean finished;
+
+    HQueryLineSource(Process process, HardwareQuery hardwareQuery, HQueryParseProgram.StreamDecoder decoder,
+                     ProgressBar progressBar, int maxWaitTimeout, ExecutorService ioExecutor, ExitHandler exitHandler) {
+        this.process = process;
+        this.hardwareQuery = hardwareQuery;
+        this.decoder = decoder;
+        this.progressBar = progressBar;
+        this.exitHandler = exitHandler;
+        this.reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        this.errorFuture = ioExecutor.submit(new StreamReader(hardwareQuery.name() + "/error stream reader",
+                process.getErrorStream(), line -> {
+            errors.add(line);
+            if (!line.isEmpty()) {
+                progressBar.progress(50D, line, true);
+            }
+        }));
+        process.onExit().completeOnTimeout(null, maxWaitTimeout, SECONDS).thenAccept(exited -> {
+            if (exited == null) {
+                destroy();
+            }
+        });
+    }
+
+    /**
+     * Block until next item is available.
+     *
+     * @return next item or null if process finished and all items were consumed
+     * @throws UncheckedIOException if unable to read process output
+     */
+    Object next() {
+        while (pending.isEmpty()) {
+            if (finished) {
+                return null;
+            }
+            String line;
+            try {
+                line = closed ? null : reader.readLine();
+            } catch (IOException ex) {
+                if (closed) {
+                    line = null;
+                } else {
+                    close();
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            if (line == null) {
+                finish();
+            } else {
+                if (!line.isEmpty()) {
+                    progressBar.progress(50D, line, false);
+                }
+                decoder.decode(line.trim(), pending::add);
+            }
+        }
+        return pending.poll();
+    }
+
+    /**
+     * Sequential stream of items. Closing the stream kills the process.
+     */
+    Stream<Object> stream() {
+        Spliterator<Object> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Object> action) {
+                Object item = next();
+                if (item == null) {
+                    return false;
+                }
+                action.accept(item);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Kill process with all descendants if it still running and release streams. Safe to call from any thread and
+     * never blocks: reader may be locked by consumer in readLine(), so process stream is closed directly and process is
+     * killed forcibly if it ignores SIGTERM, that ends the read.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            destroy();
+            try {
+                process.getInputStream().close();
+            } catch (IOException ignore) {
+            }
+            process.onExit().completeOnTimeout(null, KILL_TIMEOUT_MS, TimeUnit.MILLISECONDS).thenAccept(exited -> {
+                if (exited == null) {
+                    process.descendants().forEach(ProcessHandle::destroyForcibly);
+                    process.destroyForcibly();
+                }
+            });
+        }
+    }
+
+    private void finish() {
+        finished = true;
+        if (closed) {
+            return;
+        }
+        try {
+            process.waitFor();
+            errorFuture.get(hardwareQuery.errorStreamWaitTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignore) {
+        }
+        int retValue = process.isAlive() ? 1 : process.exitValue();
+        List<String> errorLines;
+        synchronized (errors) {
+            errorLines = new ArrayList<>(errors);
+        }
+        if (hardwareQuery.redirectErrorsToInputs()) {
+            for (String error : errorLines) {
+                decoder.decode(error.trim(), pending::add);
+            }
+        } else if (retValue != 0) {
+            exitHandler.onExit(retValue, errorLines);
+        }
+        decoder.finish(pending::add);
+    }
+
+    private void destroy() {
+        if (process.isAlive()) {
+            process.descendants().forEach(ProcessHandle::destroy);
+            process.destroy();
+        }
+    }
+
+    interface ExitHandler {
+
+        /**
+         * Called when process finished with non zero exit code. May throw to signal error to consumer
+         */
+        void onExit(int retValue, List<String> errors);
+    }
+}
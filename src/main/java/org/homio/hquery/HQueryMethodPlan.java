@@ -0,0 +1,298 @@
+package org.homio.hquery;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import org.apache.commons.lang3.SystemUtils;
+import org.homio.hquery.api.CurlQuery;
+import org.homio.hquery.api.ErrorsHandler;
+import org.homio.hquery.api.FileQuery;
+import org.homio.hquery.api.HQueryMaxWaitTimeout;
+import org.homio.hquery.api.HQueryParam;
+import org.homio.hquery.api.HardwareQuery;
+import org.homio.hquery.api.HardwareRepository;
+import org.homio.hquery.api.InvalidatesCache;
+import org.homio.hquery.api.ListParse;
+import org.homio.hquery.api.ListParse.BooleanLineParse;
+import org.homio.hquery.api.ListParse.LineParse;
+import org.homio.hquery.api.ListParse.LineParsers;
+import org.homio.hquery.api.RawParse;
+
+/**
+ * Everything handleQuery needs to know about a repository method, resolved once when the proxy is registered instead
+ * of on every call.
+ */
+@Getter
+final class HQueryMethodPlan {
+
+    // replacement token used for parameters without @HQueryParam
+    private static final String UNNAMED_PARAM_TOKEN = ":([^\\s]+)";
+
+    private final Method method;
+    // type to which query result is converted. Same as method return type or T for CompletableFuture<T>, Stream<T>, etc.
+    private final Class<?> resultType;
+    private final boolean async;
+    // not null if method returns Flow.Publisher or Stream
+    private final StreamType streamType;
+    private final HardwareRepository hardwareRepository;
+    private final HardwareQuery[] hardwareQueries;
+    private final CurlQuery curlQuery;
+    private final FileQuery fileQuery;
+    private final InvalidatesCache invalidatesCache;
+    private final ErrorsHandler errorsHandler;
+    private final String[] paramTokens;
+    private final int maxWaitTimeoutIndex;
+    private final int progressBarIndex;
+    private final int itemConsumerIndex;
+    private final MethodHandle defaultMethod;
+    private final Function<Object, Object> curlMapping;
+    private final ReturnStrategy returnStrategy;
+    private final ListParse listParse;
+    private final LineParse lineParse;
+    private final LineParsers lineParsers;
+    private final BooleanLineParse booleanLineParse;
+    private final RawParse.RawParseHandler rawParseHandler;
+    private final HQueryParseProgram.ValueParser resultParser;
+    // not null if result may be decoded while process is running
+    private final Supplier<HQueryParseProgram.StreamDecoder> itemDecoders;
+    // metrics identity of each query of method by query name
+    private final Map<String, HQueryMetrics.Query> metricsQueries = new HashMap<>();
+
+    private HQueryMethodPlan(Class<?> repositoryClass, Method method, Object proxy) {
+        this.method = method;
+        this.async = isAsyncType(method.getReturnType());
+        this.streamType = StreamType.of(method.getReturnType());
+        this.resultType = async || streamType != null ? getTypeArgument(method.getGenericReturnType()) : method.getReturnType();
+        this.hardwareRepository = repositoryClass.getDeclaredAnnotation(HardwareRepository.class);
+        this.hardwareQueries = method.getDeclaredAnnotationsByType(HardwareQuery.class);
+        this.curlQuery = method.getDeclaredAnnotation(CurlQuery.class);
+        this.fileQuery = method.getDeclaredAnnotation(FileQuery.class);
+        this.invalidatesCache = method.getDeclaredAnnotation(InvalidatesCache.class);
+        this.errorsHandler = method.getAnnotation(ErrorsHandler.class);
+        this.curlMapping = curlQuery == null ? null : newInstance(curlQuery.mapping());
+
+        this.listParse = method.getAnnotation(ListParse.class);
+
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        this.paramTokens = new String[parameterTypes.length];
+        int maxWaitTimeoutIndex = -1;
+        int progressBarIndex = -1;
+        int itemConsumerIndex = -1;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            HQueryParam param = findAnnotation(parameterAnnotations[i], HQueryParam.class);
+            paramTokens[i] = param == null ? UNNAMED_PARAM_TOKEN : ":" + param.value();
+            if (maxWaitTimeoutIndex == -1 && findAnnotation(parameterAnnotations[i], HQueryMaxWaitTimeout.class) != null) {
+                maxWaitTimeoutIndex = i;
+            }
+            if (progressBarIndex == -1 && ProgressBar.class.isAssignableFrom(parameterTypes[i])) {
+                progressBarIndex = i;
+            }
+            // Consumer receives items decoded by @ListParse while command is running
+            if (itemConsumerIndex == -1 && listParse != null && parameterTypes[i] == Consumer.class) {
+                itemConsumerIndex = i;
+            }
+        }
+        this.maxWaitTimeoutIndex = maxWaitTimeoutIndex;
+        this.progressBarIndex = progressBarIndex;
+        this.itemConsumerIndex = itemConsumerIndex;
+
+        this.lineParse = method.getDeclaredAnnotation(LineParse.class);
+        this.lineParsers = method.getAnnotation(LineParsers.class);
+        this.booleanLineParse = method.getAnnotation(BooleanLineParse.class);
+        RawParse rawParse = method.getAnnotation(RawParse.class);
+        this.rawParseHandler = rawParse == null ? null : newRawParseHandler(rawParse);
+        this.returnStrategy = ReturnStrategy.of(this);
+        this.resultParser = streamType == null ? HQueryParseProgram.forMethod(this) : null;
+        if (streamType != null && (curlQuery != null || hardwareQueries.length != 1)) {
+            throw new IllegalStateException("Streaming method " + method + " must have exactly one @HardwareQuery");
+        }
+        this.itemDecoders = HQueryParseProgram.forItems(this);
+        this.defaultMethod = method.isDefault() ? buildDefaultMethodHandle(repositoryClass, method, proxy) : null;
+
+        for (HardwareQuery hardwareQuery : hardwareQueries) {
+            addMetricsQuery(repositoryClass, hardwareQuery.name());
+        }
+        if (curlQuery != null) {
+            addMetricsQuery(repositoryClass, curlQuery.value());
+        }
+        if (fileQuery != null) {
+            addMetricsQuery(repositoryClass, fileQuery.name());
+        }
+    }
+
+    private void addMetricsQuery(Class<?> repositoryClass, String name) {
+        metricsQueries.put(name, new HQueryMetrics.Query(repositoryClass.getSimpleName(), method.getName(), name));
+    }
+
+    HQueryMetrics.Query getMetricsQuery(String name) {
+        return metricsQueries.get(name);
+    }
+
+    static HQueryMethodPlan build(Class<?> repositoryClass, Method method, Object proxy) {
+        return new HQueryMethodPlan(repositoryClass, method, proxy);
+    }
+
+    int getMaxWaitTimeout(HardwareQuery hardwareQuery, Object[] args) {
+        return maxWaitTimeoutIndex >= 0 ? (int) args[maxWaitTimeoutIndex] : hardwareQuery.maxSecondsTimeout();
+    }
+
+    ProgressBar getProgressBar(Object[] args) {
+        return progressBarIndex >= 0 ? (ProgressBar) args[progressBarIndex] : null;
+    }
+
+    HQueryParseProgram.StreamDecoder newItemDecoder() {
+        return itemDecoders == null ? null : itemDecoders.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    Consumer<Object> getItemConsumer(Object[] args) {
+        return itemConsumerIndex >= 0 ? (Consumer<Object>) args[itemConsumerIndex] : null;
+    }
+
+    String replaceStringWithArgs(String str, Object[] args) {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                String token = paramTokens[i];
+                String value = String.valueOf(args[i]);
+                String text = "";
+                while (!text.equals(str)) {
+                    text = str;
+                    str = str.replace(token, value);
+                }
+            }
+        }
+        return str;
+    }
+
+    @SneakyThrows
+    Object invokeDefault(Object[] args) {
+        return defaultMethod.invokeExact(args == null ? new Object[0] : args);
+    }
+
+    @SneakyThrows
+    private static MethodHandle buildDefaultMethodHandle(Class<?> repositoryClass, Method method, Object proxy) {
+        return MethodHandles.lookup().unreflectSpecial(method, repositoryClass)
+                            .bindTo(proxy)
+                            .asSpreader(Object[].class, method.getParameterCount())
+                            .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    private static boolean isAsyncType(Class<?> type) {
+        return type == CompletableFuture.class || type == CompletionStage.class;
+    }
+
+    private static Class<?> getTypeArgument(Type type) {
+        if (type instanceof ParameterizedType parameterizedType) {
+            Type argument = parameterizedType.getActualTypeArguments()[0];
+            if (argument instanceof Class<?> argumentClass) {
+                return argumentClass;
+            } else if (argument instanceof ParameterizedType parameterizedArgument) {
+                return (Class<?>) parameterizedArgument.getRawType();
+            }
+        }
+        return Object.class;
+    }
+
+    private static <A extends Annotation> A findAnnotation(Annotation[] annotations, Class<A> type) {
+        for (Annotation annotation : annotations) {
+            if (type.isInstance(annotation)) {
+                return type.cast(annotation);
+            }
+        }
+        return null;
+    }
+
+    @SneakyThrows
+    static <T> T newInstance(Class<T> clazz) {
+        for (Constructor<?> constructor : clazz.getConstructors()) {
+            if (constructor.getParameterCount() == 0) {
+                constructor.setAccessible(true);
+                return clazz.cast(constructor.newInstance());
+            }
+        }
+        throw new IllegalArgumentException("Unable to find default constructor for class: " + clazz);
+    }
+
+    static RawParse.RawParseHandler newRawParseHandler(RawParse rawParse) {
+        Class<? extends RawParse.RawParseHandler> handlerClass = SystemUtils.IS_OS_WINDOWS ? rawParse.win() : rawParse.nix();
+        return newInstance(handlerClass);
+    }
+
+    enum StreamType {
+        PUBLISHER, STREAM;
+
+        private static StreamType of(Class<?> type) {
+            if (type == Flow.Publisher.class) {
+                return PUBLISHER;
+            } else if (type == Stream.class) {
+                return STREAM;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * How the result of a hardware command is converted to the method return type. Resolution order matches the
+     * historical checks in handleCommandResult.
+     */
+    enum ReturnStrategy {
+        INT, BOOLEAN, VOID, STRING, INTEGER, DOUBLE, BOOLEAN_OBJECT,
+        LIST_PARSE, LINE_PARSE, LINE_PARSERS, BOOLEAN_LINE_PARSE, RAW_PARSE, BUCKET;
+
+        private static ReturnStrategy of(HQueryMethodPlan plan) {
+            Class<?> returnType = plan.resultType;
+            if (returnType == int.class) {
+                return INT;
+            } else if (returnType == boolean.class) {
+                return BOOLEAN;
+            } else if (returnType == void.class || returnType == Void.class) {
+                return VOID;
+            }
+            ReturnStrategy parseStrategy = ofParseAnnotations(plan);
+            if (plan.fileQuery != null && parseStrategy != null) {
+                return parseStrategy;
+            } else if (returnType.isAssignableFrom(String.class)) {
+                return STRING;
+            } else if (returnType.isAssignableFrom(Integer.class)) {
+                return INTEGER;
+            } else if (returnType.isAssignableFrom(Double.class)) {
+                return DOUBLE;
+            } else if (returnType.isAssignableFrom(Boolean.class)) {
+                return BOOLEAN_OBJECT;
+            }
+            return parseStrategy == null ? BUCKET : parseStrategy;
+        }
+
+        private static ReturnStrategy ofParseAnnotations(HQueryMethodPlan plan) {
+            if (plan.listParse != null) {
+                return LIST_PARSE;
+            } else if (plan.lineParse != null) {
+                return LINE_PARSE;
+            } else if (plan.lineParsers != null) {
+                return LINE_PARSERS;
+            } else if (plan.booleanLineParse != null) {
+                return BOOLEAN_LINE_PARSE;
+            } else if (plan.rawParseHandler != null) {
+                return RAW_PARSE;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.homio.hquery;
+
+import java.util.List;
+
+/**
+ * Receives measurements of hardware repository queries. Register beans of this type to collect them, i.e.
+ * MicrometerHQueryMetrics or JmxHQueryMetrics from org.homio.hquery.metrics. All methods are called on query
+ * execution path, so implementations must be fast and thread safe.
+ */
+public interface HQueryMetrics {
+
+  HQueryMetrics NOOP = new HQueryMetrics() {};
+
+  /**
+   * Called once per executed query, including cached results.
+   *
+   * @param nanos   - wall time from command build till result parsed
+   * @param success - false if query thrown exception
+   */
+  default void recordInvocation(Query query, long nanos, boolean success) {}
+
+  default void recordPhase(Query query, Phase phase, long nanos) {}
+
+  /**
+   * @param pooledShell - true if command was executed by persistent shell instead of new process
+   */
+  default void recordSpawn(Query query, boolean pooledShell) {}
+
+  /**
+   * @param timeout - true if process was killed after maxSecondsTimeout
+   */
+  default void recordExit(Query query, int exitCode, boolean timeout) {}
+
+  /**
+   * @param lines - number of stdout and stderr lines
+   * @param bytes - output size. Approximated by chars count for process output
+   */
+  default void recordOutput(Query query, long lines, long bytes) {}
+
+  default void recordCache(Query query, boolean hit) {}
+
+  /**
+   * @param delta - +1 when process started, -1 when it finished
+   */
+  default void recordInFlight(Query query, int delta) {}
+
+  static HQueryMetrics composite(List<HQueryMetrics> metrics) {
+    if (metrics.isEmpty()) {
+      return NOOP;
+    }
+    if (metrics.size() == 1) {
+      return metrics.get(0);
+    }
+    HQueryMetrics[] items = metrics.toArray(new HQueryMetrics[0]);
+    return new HQueryMetrics() {
+      @Override
+      public void recordInvocation(Query query, long nanos, boolean success) {
+        for (HQueryMetrics item : items) {
+          item.recordInvocation(query, nanos, success);
+        }
+      }
+
+      @Override
+      public void recordPhase(Query query, Phase phase, long nanos) {
+        for (HQueryMetrics item : items) {
+          item.recordPhase(query, phase, nanos);
+        }
+      }
+
+      @Override
+      public void recordSpawn(Query query, boolean pooledShell) {
+        for (HQueryMetrics item : items) {
+          item.recordSpawn(query, pooledShell);
+        }
+      }
+
+      @Override
+      public void recordExit(Query query, int exitCode, boolean timeout) {
+        for (HQueryMetrics item : items) {
+          item.recordExit(query, exitCode, timeout);
+        }
+      }
+
+      @Override
+      public void recordOutput(Query query, long lines, long bytes) {
+        for (HQueryMetrics item : items) {
+          item.recordOutput(query, lines, bytes);
+        }
+      }
+
+      @Override
+      public void recordCache(Query query, boolean hit) {
+        for (HQueryMetrics item : items) {
+          item.recordCache(query, hit);
+        }
+      }
+
+      @Override
+      public void recordInFlight(Query query, int delta) {
+        for (HQueryMetrics item : items) {
+          item.recordInFlight(query, delta);
+        }
+      }
+    };
+  }
+
+  enum Phase {
+    // resolve command placeholders
+    BUILD,
+    // process wall time from start till exit, file read or http request
+    PROCESS,
+    // wait for output streams after process exited
+    DRAIN,
+    // convert output to method result
+    PARSE
+  }
+
+  /**
+   * @param repository - repository interface simple name
+   * @param method     - repository method name
+   * @param name       - HardwareQuery/FileQuery name or CurlQuery url template
+   */
+  record Query(String repository, String method, String name) {}
+}
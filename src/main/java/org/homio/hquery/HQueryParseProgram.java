@@ -0,0 +1,430 @@
+package org.homio.hquery;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.SneakyThrows;
+import org.homio.hquery.api.ListParse;
+import org.homio.hquery.api.ListParse.BooleanLineParse;
+import org.homio.hquery.api.ListParse.LineParse;
+import org.homio.hquery.api.ListParse.LineParsers;
+import org.homio.hquery.api.RawParse;
+import org.homio.hquery.api.SplitParse;
+
+/**
+ * Compiled form of @SplitParse/@RawParse/@LineParse/@BooleanLineParse/@LineParsers mapping for a target class. Patterns,
+ * value converters and field setters are resolved once per class and reused for every parse.
+ */
+final class HQueryParseProgram {
+
+    private static final ClassValue<HQueryParseProgram> PROGRAMS = new ClassValue<>() {
+        @Override
+        protected HQueryParseProgram computeValue(Class<?> type) {
+            return new HQueryParseProgram(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final Kind kind;
+    private final MethodHandle constructor;
+    private final Pattern splitPattern;
+    private final List<SplitField> splitFields = new ArrayList<>();
+    private final List<ParsedField> parsedFields = new ArrayList<>();
+
+    private HQueryParseProgram(Class<?> type) {
+        this.type = type;
+        if (Collection.class.isAssignableFrom(type)) {
+            kind = List.class.isAssignableFrom(type) ? Kind.LIST : Set.class.isAssignableFrom(type) ? Kind.SET : Kind.UNSUPPORTED;
+            constructor = null;
+            splitPattern = null;
+            return;
+        }
+        constructor = findConstructor(type);
+
+        SplitParse splitParse = type.getDeclaredAnnotation(SplitParse.class);
+        splitPattern = splitParse == null ? null : Pattern.compile(splitParse.value());
+        List<Field> fields = getAllFields(type);
+        if (splitPattern != null) {
+            for (Field field : fields) {
+                SplitParse.SplitParseIndex splitParseIndex = field.getDeclaredAnnotation(SplitParse.SplitParseIndex.class);
+                if (splitParseIndex != null) {
+                    splitFields.add(new SplitField(splitParseIndex.index(), converter(field.getType()), setter(field)));
+                }
+            }
+        }
+        for (Field field : fields) {
+            RawParse rawParse = field.getDeclaredAnnotation(RawParse.class);
+            if (rawParse != null) {
+                RawParse.RawParseHandler handler = HQueryMethodPlan.newRawParseHandler(rawParse);
+                parsedFields.add(new ParsedField(lines -> handler.handle(lines, field), setter(field)));
+            }
+        }
+        for (Field field : fields) {
+            LineParse lineParse = field.getDeclaredAnnotation(LineParse.class);
+            if (lineParse != null) {
+                parsedFields.add(new ParsedField(new LineValueParser(lineParse, field.getType()), setter(field)));
+            }
+        }
+        for (Field field : fields) {
+            BooleanLineParse booleanLineParse = field.getDeclaredAnnotation(BooleanLineParse.class);
+            if (booleanLineParse != null) {
+                parsedFields.add(new ParsedField(new BooleanLineValueParser(booleanLineParse), setter(field)));
+            }
+        }
+        for (Field field : fields) {
+            LineParsers lineParsers = field.getDeclaredAnnotation(LineParsers.class);
+            if (lineParsers != null) {
+                parsedFields.add(new ParsedField(new FirstValueParser(lineParsers, field.getType()), setter(field)));
+            }
+        }
+        if (!splitFields.isEmpty() || !parsedFields.isEmpty()) {
+            kind = Kind.OBJECT;
+        } else {
+            kind = type.isAssignableFrom(String.class) ? Kind.STRING : Kind.UNSUPPORTED;
+        }
+    }
+
+    static HQueryParseProgram of(Class<?> type) {
+        return PROGRAMS.get(type);
+    }
+
+    /**
+     * Build parser for method level annotations or method return type. Returns null for scalar return types.
+     */
+    static ValueParser forMethod(HQueryMethodPlan plan) {
+        Class<?> returnType = plan.getResultType();
+        return switch (plan.getReturnStrategy()) {
+            case LIST_PARSE -> new ListValueParser(plan.getListParse());
+            case LINE_PARSE -> new LineValueParser(plan.getLineParse(), returnType);
+            case LINE_PARSERS -> new FirstValueParser(plan.getLineParsers(), returnType);
+            case BOOLEAN_LINE_PARSE -> new BooleanLineValueParser(plan.getBooleanLineParse());
+            case RAW_PARSE -> {
+                RawParse.RawParseHandler handler = plan.getRawParseHandler();
+                yield lines -> handler.handle(lines, null);
+            }
+            case BUCKET -> of(returnType)::parse;
+            default -> null;
+        };
+    }
+
+    /**
+     * Build factory of incremental decoders for methods that return Flow.Publisher/Stream or use @ListParse. Returns null
+     * if result of method can be parsed only after the process finished.
+     */
+    static Supplier<StreamDecoder> forItems(HQueryMethodPlan plan) {
+        if (plan.getListParse() != null) {
+            return new ListValueParser(plan.getListParse())::newDecoder;
+        } else if (plan.getStreamType() == null) {
+            return null;
+        }
+        StreamDecoder decoder = forStream(plan);
+        return () -> decoder;
+    }
+
+    /**
+     * Build per-line decoder for streaming methods. Decoder is shared between running streams and must not keep state
+     * between lines.
+     */
+    private static StreamDecoder forStream(HQueryMethodPlan plan) {
+        Class<?> type = plan.getResultType();
+        // unlike whole-output parsing, line annotations take precedence over scalar item types
+        if (plan.getLineParse() != null) {
+            return new LineValueParser(plan.getLineParse(), type)::parseLine;
+        } else if (plan.getLineParsers() != null) {
+            return new FirstValueParser(plan.getLineParsers(), type)::parseLine;
+        }
+        switch (plan.getReturnStrategy()) {
+            case STRING -> {
+                return (line, items) -> items.accept(line);
+            }
+            case INTEGER, DOUBLE -> {
+                Function<String, Object> converter = converter(type);
+                return (line, items) -> {
+                    if (!line.isEmpty()) {
+                        items.accept(converter.apply(line));
+                    }
+                };
+            }
+            case BOOLEAN_OBJECT -> {
+                return (line, items) -> {
+                    if (!line.isEmpty()) {
+                        items.accept(Boolean.parseBoolean(line));
+                    }
+                };
+            }
+            case BUCKET -> {
+                HQueryParseProgram program = of(type);
+                if (program.kind == Kind.OBJECT) {
+                    return (line, items) -> items.accept(program.parse(List.of(line)));
+                }
+            }
+        }
+        throw new IllegalStateException("Unsupported streaming result type " + type.getSimpleName() + " of method "
+                + plan.getMethod());
+    }
+
+    @SneakyThrows
+    Object parse(List<String> lines) {
+        switch (kind) {
+            case LIST -> {
+                return lines;
+            }
+            case SET -> {
+                return new HashSet<>(lines);
+            }
+            case STRING -> {
+                return String.join("", lines);
+            }
+            case UNSUPPORTED -> throw new IllegalStateException("Unsupported return type: " + type.getSimpleName());
+        }
+        if (constructor == null) {
+            throw new IllegalArgumentException("Unable to find default constructor for class: " + type);
+        }
+        Object obj = constructor.invokeExact();
+        if (splitPattern != null) {
+            for (String line : lines) {
+                String[] split = splitPattern.split(line);
+                for (SplitField splitField : splitFields) {
+                    if (splitField.index >= 0 && splitField.index < split.length) {
+                        splitField.setter.invokeExact(obj, splitField.converter.apply(split[splitField.index].trim()));
+                    }
+                }
+            }
+        }
+        for (ParsedField parsedField : parsedFields) {
+            parsedField.setter.invokeExact(obj, parsedField.parser.parse(lines));
+        }
+        return obj;
+    }
+
+    private static List<Field> getAllFields(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    @SneakyThrows
+    private static MethodHandle findConstructor(Class<?> type) {
+        for (Constructor<?> constructor : type.getConstructors()) {
+            if (constructor.getParameterCount() == 0) {
+                constructor.setAccessible(true);
+                return MethodHandles.lookup().unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+            }
+        }
+        return null;
+    }
+
+    @SneakyThrows
+    private static MethodHandle setter(Field field) {
+        field.setAccessible(true);
+        return MethodHandles.lookup().unreflectSetter(field)
+                            .asType(MethodType.methodType(void.class, Object.class, Object.class));
+    }
+
+    private static Function<String, Object> converter(Class<?> type) {
+        if (type.isAssignableFrom(Integer.class)) {
+            return Integer::valueOf;
+        } else if (type.isAssignableFrom(Double.class)) {
+            return Double::parseDouble;
+        }
+        return value -> value;
+    }
+
+    private enum Kind {
+        LIST, SET, STRING, OBJECT, UNSUPPORTED
+    }
+
+    interface ValueParser {
+
+        Object parse(List<String> lines);
+    }
+
+    /**
+     * Converts command output into items while command is running. May emit any number of items per line.
+     */
+    interface StreamDecoder {
+
+        void decode(String line, Consumer<Object> items);
+
+        /**
+         * Called once after last line to emit buffered items
+         */
+        default void finish(Consumer<Object> items) {
+        }
+    }
+
+    private record SplitField(int index, Function<String, Object> converter, MethodHandle setter) {
+
+    }
+
+    private record ParsedField(ValueParser parser, MethodHandle setter) {
+
+    }
+
+    private static final class LineValueParser implements ValueParser {
+
+        private final Pattern pattern;
+        private final int group;
+        private final Function<String, Object> converter;
+
+        private LineValueParser(LineParse lineParse, Class<?> type) {
+            this.pattern = Pattern.compile(lineParse.value());
+            this.group = lineParse.group();
+            this.converter = converter(type);
+        }
+
+        @Override
+        public Object parse(List<String> lines) {
+            Matcher matcher = pattern.matcher("");
+            for (String line : lines) {
+                if (matcher.reset(line).matches()) {
+                    String value = matcher.group(group);
+                    if (value != null) {
+                        return converter.apply(value.replace("\"", ""));
+                    }
+                }
+            }
+            return null;
+        }
+
+        boolean parseLine(String line, Consumer<Object> items) {
+            Matcher matcher = pattern.matcher(line);
+            if (matcher.matches()) {
+                String value = matcher.group(group);
+                if (value != null) {
+                    items.accept(converter.apply(value.replace("\"", "")));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class BooleanLineValueParser implements ValueParser {
+
+        private final Pattern pattern;
+        private final int group;
+        private final String when;
+        private final boolean inverse;
+
+        private BooleanLineValueParser(BooleanLineParse lineParse) {
+            this.pattern = Pattern.compile(lineParse.value());
+            this.group = lineParse.group();
+            this.when = lineParse.when();
+            this.inverse = lineParse.inverse();
+        }
+
+        @Override
+        public Object parse(List<String> lines) {
+            Matcher matcher = pattern.matcher("");
+            for (String line : lines) {
+                if (matcher.reset(line).matches() && when.equals(matcher.group(group))) {
+                    return !inverse;
+                }
+            }
+            return when.isEmpty() ? null : inverse;
+        }
+    }
+
+    private static final class FirstValueParser implements ValueParser {
+
+        private final LineValueParser[] parsers;
+
+        private FirstValueParser(LineParsers lineParsers, Class<?> type) {
+            LineParse[] values = lineParsers.value();
+            this.parsers = new LineValueParser[values.length];
+            for (int i = 0; i < values.length; i++) {
+                parsers[i] = new LineValueParser(values[i], type);
+            }
+        }
+
+        @Override
+        public Object parse(List<String> lines) {
+            for (LineValueParser parser : parsers) {
+                Object value = parser.parse(lines);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        void parseLine(String line, Consumer<Object> items) {
+            for (LineValueParser parser : parsers) {
+                if (parser.parseLine(line, items)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Split lines into buckets that starts with delimiter line and parse each bucket into ListParse.clazz()
+     */
+    private static final class ListValueParser implements ValueParser {
+
+        private final Pattern delimiter;
+        private final HQueryParseProgram bucketParser;
+
+        private ListValueParser(ListParse listParse) {
+            this.delimiter = Pattern.compile(listParse.delimiter());
+            this.bucketParser = of(listParse.clazz());
+        }
+
+        @Override
+        public Object parse(List<String> lines) {
+            List<Object> result = new ArrayList<>();
+            StreamDecoder decoder = newDecoder();
+            for (String line : lines) {
+                decoder.decode(line, result::add);
+            }
+            decoder.finish(result::add);
+            return result;
+        }
+
+        /**
+         * Decoder that keeps only current bucket and emits it once next delimiter line or end of output arrives
+         */
+        StreamDecoder newDecoder() {
+            Matcher matcher = delimiter.matcher("");
+            return new StreamDecoder() {
+                private List<String> bucket;
+
+                @Override
+                public void decode(String line, Consumer<Object> items) {
+                    if (matcher.reset(line).matches()) {
+                        finish(items);
+                        bucket = new ArrayList<>();
+                    }
+                    if (bucket != null) {
+                        bucket.add(line);
+                    }
+                }
+
+                @Override
+                public void finish(Consumer<Object> items) {
+                    if (bucket != null) {
+                        items.accept(bucketParser.parse(bucket));
+                        bucket = null;
+                    }
+                }
+            };
+        }
+    }
+}
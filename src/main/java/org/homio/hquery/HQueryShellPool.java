@@ -0,0 +1,221 @@
+package org.homio.hquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.SystemUtils;
+
+/**
+ * Pool of long-lived /bin/sh co-processes that execute short commands without fork/exec of new process from JVM.
+ * Command is written to shell stdin and runs in subshell with stdin redirected from /dev/null. After command finished,
+ * shell prints sentinel line with exit code to both stdout and stderr, so output of each command is delimited without
+ * closing streams. Each shell executes only one command at a time. Shell that timed out, died or executed
+ * maxCommandsPerShell commands is destroyed with all its children and replaced lazily. Commands that leave background
+ * children writing to stdout must not use shell pool since their output would mix with output of next command.
+ */
+final class HQueryShellPool implements AutoCloseable {
+
+    private final int maxShells;
+    private final int maxCommandsPerShell;
+    private final ExecutorService ioExecutor;
+    private final Deque<Shell> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile boolean closed;
+
+    HQueryShellPool(int maxShells, int maxCommandsPerShell, ExecutorService ioExecutor) {
+        this.maxShells = maxShells;
+        this.maxCommandsPerShell = maxCommandsPerShell;
+        this.ioExecutor = ioExecutor;
+    }
+
+    static boolean isSupported() {
+        return !SystemUtils.IS_OS_WINDOWS;
+    }
+
+    /**
+     * Execute command in idle shell.
+     *
+     * @return future with command exit code or null if all shells are busy, so caller should start own process.
+     * Future completes exceptionally with TimeoutException if command not finished in maxWaitTimeout seconds
+     */
+    @Nullable
+    CompletableFuture<Integer> execute(String command, String dir, int maxWaitTimeout,
+                                       Consumer<String> inputConsumer, Consumer<String> errorConsumer) {
+        Shell shell = lease();
+        if (shell == null) {
+            return null;
+        }
+        CompletableFuture<Integer> result;
+        try {
+            result = shell.execute(command, dir, inputConsumer, errorConsumer);
+        } catch (IOException ex) {
+            discard(shell);
+            return CompletableFuture.failedFuture(ex);
+        }
+        return result.orTimeout(maxWaitTimeout, TimeUnit.SECONDS).whenComplete((retValue, ex) -> {
+            if (ex == null && shell.commands.get() < maxCommandsPerShell && !closed) {
+                shell.current = null;
+                idle.push(shell);
+            } else {
+                discard(shell);
+            }
+        });
+    }
+
+    /**
+     * Shell script that runs command in subshell and then prints sentinel followed by exit code to stdout and stderr
+     */
+    static String buildScript(String command, String dir, String sentinel) {
+        return (dir.isEmpty() ? "(eval " : "(cd " + quote(dir) + " && eval ") + quote(command) + ") </dev/null\n"
+                + "__hquery_rc=$?\n"
+                + "printf '%s%d\\n' '" + sentinel + "' $__hquery_rc\n"
+                + "printf '%s%d\\n' '" + sentinel + "' $__hquery_rc >&2\n";
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Shell shell;
+        while ((shell = idle.poll()) != null) {
+            discard(shell);
+        }
+    }
+
+    private Shell lease() {
+        Shell shell;
+        while ((shell = idle.poll()) != null) {
+            if (shell.process.isAlive()) {
+                return shell;
+            }
+            discard(shell);
+        }
+        if (closed || size.incrementAndGet() > maxShells) {
+            size.decrementAndGet();
+            return null;
+        }
+        try {
+            return new Shell();
+        } catch (IOException ex) {
+            size.decrementAndGet();
+            return null;
+        }
+    }
+
+    private void discard(Shell shell) {
+        if (shell.destroy()) {
+            size.decrementAndGet();
+        }
+    }
+
+    private final class Shell {
+
+        private final Process process;
+        private final OutputStream stdin;
+        private final String sentinelPrefix = "__hquery_" + UUID.randomUUID().toString().replace("-", "") + "_";
+        private final AtomicLong commands = new AtomicLong();
+        private final AtomicInteger destroyed = new AtomicInteger();
+        private volatile Command current;
+
+        private Shell() throws IOException {
+            process = new ProcessBuilder("/bin/sh").start();
+            stdin = process.getOutputStream();
+            ioExecutor.execute(() -> read(process.getInputStream(), false));
+            ioExecutor.execute(() -> read(process.getErrorStream(), true));
+        }
+
+        private CompletableFuture<Integer> execute(String command, String dir, Consumer<String> inputConsumer,
+                                                   Consumer<String> errorConsumer) throws IOException {
+            String sentinel = sentinelPrefix + commands.incrementAndGet() + ":";
+            Command cmd = new Command(sentinel, inputConsumer, errorConsumer);
+            current = cmd;
+            stdin.write(buildScript(command, dir, sentinel).getBytes(UTF_8));
+            stdin.flush();
+            return cmd.output.thenCombine(cmd.error, (retValue, ignore) -> retValue);
+        }
+
+        private void read(InputStream stream, boolean errorStream) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Command cmd = current;
+                    if (cmd != null) {
+                        cmd.accept(line, errorStream);
+                    }
+                }
+            } catch (IOException ignore) {
+            }
+            Command cmd = current;
+            if (cmd != null) {
+                (errorStream ? cmd.error : cmd.output).completeExceptionally(new IOException("Shell process terminated"));
+            }
+        }
+
+        /**
+         * @return true if shell was destroyed by this call
+         */
+        private boolean destroy() {
+            if (destroyed.getAndIncrement() != 0) {
+                return false;
+            }
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+            return true;
+        }
+
+    }
+
+    private static final class Command {
+
+        private final String sentinel;
+        private final Consumer<String> inputConsumer;
+        private final Consumer<String> errorConsumer;
+        private final CompletableFuture<Integer> output = new CompletableFuture<>();
+        private final CompletableFuture<Integer> error = new CompletableFuture<>();
+
+        private Command(String sentinel, Consumer<String> inputConsumer, Consumer<String> errorConsumer) {
+            this.sentinel = sentinel;
+            this.inputConsumer = inputConsumer;
+            this.errorConsumer = errorConsumer;
+        }
+
+        private void accept(String line, boolean errorStream) {
+            CompletableFuture<Integer> done = errorStream ? error : output;
+            if (done.isDone()) {
+                return;
+            }
+            Consumer<String> consumer = errorStream ? errorConsumer : inputConsumer;
+            int index = line.indexOf(sentinel);
+            if (index < 0) {
+                consumer.accept(line);
+                return;
+            }
+            // command output without trailing new line ends right before sentinel
+            if (index > 0) {
+                consumer.accept(line.substring(0, index));
+            }
+            try {
+                done.complete(Integer.parseInt(line.substring(index + sentinel.length()).trim()));
+            } catch (NumberFormatException ex) {
+                done.complete(1);
+            }
+        }
+    }
+}
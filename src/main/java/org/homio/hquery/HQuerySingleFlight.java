@@ -0,0 +1,46 @@
+package org.homio.hquery;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Run at most one execution per key at a time. Callers that arrive while execution is in progress wait for it and get
+ * the same result instead of starting own execution.
+ */
+final class HQuerySingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param key      - execution key
+     * @param supplier - starts execution. Called only if there is no running execution for same key
+     * @return future that completes with result of running or newly started execution
+     */
+    CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> supplier) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return running;
+        }
+        try {
+            supplier.get().whenComplete((value, ex) -> {
+                inFlight.remove(key, future);
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                } else {
+                    future.complete(value);
+                }
+            });
+        } catch (RuntimeException | Error ex) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    int size() {
+        return inFlight.size();
+    }
+}
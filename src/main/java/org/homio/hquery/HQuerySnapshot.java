@@ -0,0 +1,223 @@
+package org.homio.hquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jakarta.annotation.Nullable;
+
+/**
+ * Results of long-living cached queries persisted between JVM starts, so commands like `test -f ~/.ssh/id_rsa` are not
+ * forked again after restart. File is memory-mapped on load and rewritten in background after new result is recorded.
+ * <p>
+ * Results are valid only for same boot: file starts with fingerprint of boot id, kernel version and architecture and
+ * is ignored after reboot or kernel upgrade. Supported on Linux only, where boot id is available. Entries invalidated in
+ * HQueryCache are removed from file as well.
+ * <p>
+ * Format: magic, version, fingerprint, entries count, then for every entry key fields, expireAt, exit code and output
+ * lines. Strings are int length + UTF-8 bytes.
+ */
+final class HQuerySnapshot {
+
+    private static final int MAGIC = 0x48515331; // HQS1
+    private static final int VERSION = 1;
+    private static final Path BOOT_ID = Path.of("/proc/sys/kernel/random/boot_id");
+
+    private final Path file;
+    private final String fingerprint;
+    private final Executor executor;
+    private final HQueryLogger logger;
+    private final Map<HQueryCache.Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    private HQuerySnapshot(Path file, String fingerprint, Executor executor, HQueryLogger logger) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    /**
+     * @param executor - executor for background writes
+     * @return snapshot with entries of file which are not expired, or null if boot fingerprint is not available
+     */
+    static @Nullable HQuerySnapshot load(Path file, Executor executor, HQueryLogger logger) {
+        String fingerprint = fingerprint();
+        if (fingerprint == null) {
+            return null;
+        }
+        HQuerySnapshot snapshot = new HQuerySnapshot(file, fingerprint, executor, logger);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            snapshot.read(buffer);
+        } catch (NoSuchFileException ignore) {
+        } catch (IOException | RuntimeException ex) {
+            // corrupted or truncated, rewritten on next record
+            snapshot.entries.clear();
+            logger.error("Unable to read hquery snapshot " + file + ": " + ex);
+        }
+        return snapshot;
+    }
+
+    Map<HQueryCache.Key, Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Store result and schedule write of file
+     */
+    void record(HQueryCache.Key key, List<String> inputs, int retValue, int ttlSeconds) {
+        long expireAt = System.currentTimeMillis() + ttlSeconds * 1000L;
+        entries.put(key, new Entry(List.copyOf(inputs), retValue, expireAt));
+        scheduleWrite();
+    }
+
+    /**
+     * Drop result invalidated in cache, so it is not loaded after restart
+     */
+    void remove(HQueryCache.Key key) {
+        if (entries.remove(key) != null) {
+            scheduleWrite();
+        }
+    }
+
+    void clear() {
+        if (!entries.isEmpty()) {
+            entries.clear();
+            scheduleWrite();
+        }
+    }
+
+    private void scheduleWrite() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    writeScheduled.set(false);
+                    write();
+                });
+            } catch (RejectedExecutionException ex) {
+                // executor is shut down, write in caller thread so change is not lost
+                writeScheduled.set(false);
+                write();
+            }
+        }
+    }
+
+    synchronized void write() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<HQueryCache.Key, Entry>> items = new ArrayList<>();
+        for (Map.Entry<HQueryCache.Key, Entry> item : entries.entrySet()) {
+            if (item.getValue().expireAt() > now) {
+                items.add(item);
+            }
+        }
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    writeString(out, fingerprint);
+                    out.writeInt(items.size());
+                    for (Map.Entry<HQueryCache.Key, Entry> item : items) {
+                        HQueryCache.Key key = item.getKey();
+                        Entry entry = item.getValue();
+                        writeString(out, key.source());
+                        writeString(out, key.command());
+                        writeString(out, key.dir());
+                        writeString(out, key.os());
+                        out.writeLong(entry.expireAt());
+                        out.writeInt(entry.retValue());
+                        out.writeInt(entry.inputs().size());
+                        for (String input : entry.inputs()) {
+                            writeString(out, input);
+                        }
+                    }
+                }
+                Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            logger.error("Unable to write hquery snapshot " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private void read(ByteBuffer buffer) {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || !fingerprint.equals(readString(buffer))) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            HQueryCache.Key key = new HQueryCache.Key(readString(buffer), readString(buffer), readString(buffer),
+                    readString(buffer));
+            long expireAt = buffer.getLong();
+            int retValue = buffer.getInt();
+            int lines = buffer.getInt();
+            List<String> inputs = new ArrayList<>(Math.min(lines, buffer.remaining() / 4));
+            for (int j = 0; j < lines; j++) {
+                inputs.add(readString(buffer));
+            }
+            if (expireAt > now) {
+                entries.put(key, new Entry(inputs, retValue, expireAt));
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static @Nullable String fingerprint() {
+        try {
+            String bootId = Files.readString(BOOT_ID).trim();
+            return bootId + "|" + System.getProperty("os.name") + " " + System.getProperty("os.version") + " "
+                    + System.getProperty("os.arch");
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @param expireAt - epoch millis when result expires
+     */
+    record Entry(List<String> inputs, int retValue, long expireAt) {
+
+        int remainingSeconds(long now) {
+            return (int) Math.min(Integer.MAX_VALUE, (expireAt - now) / 1000);
+        }
+    }
+}
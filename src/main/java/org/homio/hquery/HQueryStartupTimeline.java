@@ -0,0 +1,93 @@
+package org.homio.hquery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.Nullable;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+
+/**
+ * Timeline of hquery bootstrap. Steps executed during postProcessBeanFactory are reported to Spring ApplicationStartup
+ * as hquery.* steps (i.e. visible in actuator startup endpoint with BufferingApplicationStartup) and logged as one
+ * line by finish(). Background steps, which may end after context refresh, are logged separately when they end.
+ */
+final class HQueryStartupTimeline {
+
+    private final ApplicationStartup applicationStartup;
+    private final HQueryLogger logger;
+    private final long start = System.nanoTime();
+    private final List<String> entries = new ArrayList<>();
+    private boolean finished;
+
+    HQueryStartupTimeline(ApplicationStartup applicationStartup, HQueryLogger logger) {
+        this.applicationStartup = applicationStartup;
+        this.logger = logger;
+    }
+
+    Step start(String name) {
+        return new Step(name, applicationStartup.start("hquery." + name));
+    }
+
+    /**
+     * Start step running in other thread. It is not reported to ApplicationStartup, which tracks steps of context
+     * refresh thread only.
+     */
+    Step startBackground(String name) {
+        return new Step(name, null);
+    }
+
+    void finish() {
+        String summary;
+        synchronized (this) {
+            finished = true;
+            summary = "HQuery bootstrap " + millis(start, System.nanoTime()) + "ms: " + String.join(", ", entries);
+        }
+        logger.info(summary);
+    }
+
+    private static long millis(long from, long to) {
+        return TimeUnit.NANOSECONDS.toMillis(to - from);
+    }
+
+    final class Step implements AutoCloseable {
+
+        private final String name;
+        private final @Nullable StartupStep startupStep;
+        private final long started = System.nanoTime();
+        private final StringBuilder tags = new StringBuilder();
+
+        private Step(String name, @Nullable StartupStep startupStep) {
+            this.name = name;
+            this.startupStep = startupStep;
+        }
+
+        Step tag(String key, Object value) {
+            if (startupStep != null) {
+                startupStep.tag(key, String.valueOf(value));
+            }
+            tags.append(tags.isEmpty() ? "" : " ").append(key).append('=').append(value);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (startupStep != null) {
+                startupStep.end();
+            }
+            long ended = System.nanoTime();
+            String entry = "%s +%dms %dms".formatted(name, millis(start, started), millis(started, ended))
+                    + (tags.isEmpty() ? "" : " (" + tags + ")");
+            boolean late;
+            synchronized (HQueryStartupTimeline.this) {
+                late = finished;
+                if (!late) {
+                    entries.add(entry);
+                }
+            }
+            if (late) {
+                logger.info("HQuery bootstrap: " + entry);
+            }
+        }
+    }
+}
@@ -1,24 +1,54 @@
 package org.homio.hquery;
 
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 
-@RequiredArgsConstructor
+/**
+ * Drain process input and error streams on a shared executor. Readers complete by themselves once process exits and
+ * streams reach EOF.
+ */
 public class StreamGobbler {
 
-  private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+  /**
+   * How long to wait for end of streams after process exited. Readers normally reach EOF right after exit, only a
+   * descendant process that inherited the pipes (i.e. started with '&') keeps them open that long
+   */
+  public static final int DRAIN_TIMEOUT_MS = 5000;
+
+  /** Executor used when no executor was passed explicitly. Virtual threads do not need to be shut down */
+  private static final ExecutorService DEFAULT_EXECUTOR =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("hquery-io-", 0).factory());
+
+  private final ExecutorService executorService;
   private final String name;
   private final Consumer<String> inputConsumer;
   private final Consumer<String> errorConsumer;
 
+  private Process process;
+  private volatile boolean stopped;
+  private volatile boolean closing;
   private Future<?> inputFuture = null;
   private Future<?> errorFuture = null;
 
+  public StreamGobbler(String name, Consumer<String> inputConsumer, Consumer<String> errorConsumer) {
+    this(DEFAULT_EXECUTOR, name, inputConsumer, errorConsumer);
+  }
+
+  public StreamGobbler(
+      ExecutorService executorService,
+      String name,
+      Consumer<String> inputConsumer,
+      Consumer<String> errorConsumer) {
+    this.executorService = executorService;
+    this.name = name;
+    this.inputConsumer = inputConsumer;
+    this.errorConsumer = errorConsumer;
+  }
+
   public static void streamAndStop(
       Process process,
       int waitTimeoutBeforeStopMs,
@@ -32,32 +62,66 @@ public class StreamGobbler {
   }
 
   public void stream(Process process) {
+    this.process = process;
     errorFuture =
         executorService.submit(
             new StreamReader(
-                name + "/error stream reader", process.getErrorStream(), errorConsumer));
+                name + "/error stream reader", process.getErrorStream(), line -> {
+                  if (!stopped) {
+                    errorConsumer.accept(line);
+                  }
+                }, () -> closing));
     inputFuture =
         executorService.submit(
             new StreamReader(
-                name + "/input stream reader", process.getInputStream(), inputConsumer));
+                name + "/input stream reader", process.getInputStream(), line -> {
+                  if (!stopped) {
+                    inputConsumer.accept(line);
+                  }
+                }, () -> closing));
   }
 
-  @SneakyThrows
+  /**
+   * Wait until both readers reach end of streams, so whole output of exited process is consumed. Only if streams are
+   * still open after waitTimeoutBeforeStopMs (i.e. some descendant process keeps pipe open) - close them and give
+   * readers waitStopStreamsTimeoutMs to finish. Lines that arrive after that are dropped.
+   */
   public void stopStream(int waitTimeoutBeforeStopMs, int waitStopStreamsTimeoutMs) {
     if (errorFuture != null && inputFuture != null) {
-      if (waitTimeoutBeforeStopMs > 0) {
-        try {
-          errorFuture.get(waitTimeoutBeforeStopMs, TimeUnit.MILLISECONDS);
-          inputFuture.get(waitTimeoutBeforeStopMs, TimeUnit.MILLISECONDS);
-        } catch (Exception ignore) {
-        }
+      if (!awaitReaders(Math.max(waitTimeoutBeforeStopMs, 0))) {
+        closing = true;
+        closeQuietly(process);
+        awaitReaders(Math.max(waitStopStreamsTimeoutMs, 0));
       }
-      errorFuture.cancel(true);
-      inputFuture.cancel(true);
-      executorService.shutdown();
-      if (!executorService.awaitTermination(waitStopStreamsTimeoutMs, TimeUnit.MILLISECONDS)) {
-        executorService.shutdownNow();
+      stopped = true;
+    }
+  }
+
+  private boolean awaitReaders(long timeoutMs) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    for (Future<?> future : new Future<?>[] {errorFuture, inputFuture}) {
+      try {
+        future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (Exception ignore) {
+        if (!future.isDone()) {
+          return false;
+        }
       }
     }
+    return true;
+  }
+
+  private static void closeQuietly(Process process) {
+    try {
+      process.getInputStream().close();
+    } catch (IOException ignore) {
+    }
+    try {
+      process.getErrorStream().close();
+    } catch (IOException ignore) {
+    }
   }
 }
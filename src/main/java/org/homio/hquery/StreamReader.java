@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
 
@@ -13,6 +14,12 @@ public class StreamReader implements Runnable {
   private final String name;
   private final InputStream inputStream;
   private final Consumer<String> lineConsumer;
+  /** Stream was closed by owner on purpose, so read error is expected and not reported */
+  private final BooleanSupplier closedByOwner;
+
+  public StreamReader(String name, InputStream inputStream, Consumer<String> lineConsumer) {
+    this(name, inputStream, lineConsumer, () -> false);
+  }
 
   @Override
   public void run() {
@@ -22,6 +29,9 @@ public class StreamReader implements Runnable {
         lineConsumer.accept(line);
       }
     } catch (IOException ex) {
+      if (closedByOwner.getAsBoolean()) {
+        return;
+      }
       lineConsumer.accept("Thread reader <" + name + "> got error: <" + ex.getMessage() + ">");
       throw new RuntimeException(ex);
     }
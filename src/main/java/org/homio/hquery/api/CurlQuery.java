@@ -16,6 +16,12 @@ public @interface CurlQuery {
 
   int maxSecondsTimeout() default 60;
 
+  /**
+   * Cache response. Expired response is revalidated with ETag / Last-Modified and reused if server replies 304. Bodies
+   * are stored in hquery.curl-cache.dir and survive restart
+   *
+   * @return is cache response
+   */
   boolean cache() default false;
 
   /**
@@ -25,8 +31,30 @@ public @interface CurlQuery {
    */
   int cacheValidSec() default 86_400;
 
+  /**
+   * Seconds after cacheValidSec expired during which stale response is returned immediately while one background
+   * refresh runs. 0 - caller waits for new response
+   *
+   * @return stale period in sec
+   */
+  int staleWhileRevalidateSec() default 0;
+
+  /**
+   * Refresh cached response in background if it is read less than this seconds before cacheValidSec expires
+   *
+   * @return refresh ahead period in sec
+   */
+  int refreshAheadSec() default 0;
+
   boolean ignoreOnError() default false;
 
+  /**
+   * Share response of identical request that is already running instead of sending new one
+   *
+   * @return is join in-flight request
+   */
+  boolean coalesce() default true;
+
   Class<? extends Function<Object, Object>> mapping() default FallbackMapping.class;
 
   class FallbackMapping implements Function<Object, Object> {
@@ -0,0 +1,42 @@
+package org.homio.hquery.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Read file directly instead of starting process. File lines are mapped to result same way as output of HardwareQuery
+ * command, with one difference: method level @LineParse/@LineParsers/@BooleanLineParse/@ListParse/@RawParse take
+ * precedence over String/Integer/Double/Boolean return types, since there is no shell pipeline to cut the value.
+ * Primitive int/boolean results are 0/true if file was read successfully, same as exit code of 'cat'.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface FileQuery {
+
+  String name();
+
+  /** File path. Supports :param and ${env} placeholders */
+  String value();
+
+  /** File path on Windows. Query returns HardwareRepository disable values if empty */
+  String win() default "";
+
+  // how long cache valid in sec
+  int cacheValid() default 0;
+
+  /**
+   * Keep cached result until file changes instead of re-reading it every cacheValid seconds. File is watched with
+   * WatchService or polled by modification time, size and content on pseudo file systems like /proc and /sys.
+   * Requires cacheValid > 0, which is still upper bound of cache entry lifetime
+   */
+  boolean watch() default false;
+
+  boolean printOutput() default false;
+
+  /** Return valueOnError or null instead of throwing HardwareException if file is missing or unreadable */
+  boolean ignoreOnError() default false;
+
+  String valueOnError() default "";
+}
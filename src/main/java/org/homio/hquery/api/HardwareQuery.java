@@ -37,11 +37,36 @@ public @interface HardwareQuery {
   // how long cache valid in sec
   int cacheValid() default 0;
 
+  /**
+   * Seconds after cacheValid expired during which stale result is returned immediately while one background refresh
+   * runs. 0 - caller waits for new result
+   */
+  int staleWhileRevalidate() default 0;
+
+  /** Refresh cached result in background if it is read less than this seconds before cacheValid expires */
+  int refreshAhead() default 0;
+
   String valueOnError() default "";
 
-  /** Timeout to wait when error stream is closed before force stop it */
+  /**
+   * Timeout to wait for error stream reader after streams were force closed, because descendant process kept them open
+   * after command exited
+   */
   int errorStreamWaitTimeoutMs() default 250;
 
-  /** Timeout to wait when input stream is closed before force stop it */
+  /** Same as errorStreamWaitTimeoutMs for input stream reader */
   int inputStreamWaitTimeoutMs() default 250;
+
+  /**
+   * Share result of identical command (same resolved command and dir) that is already running instead of starting new
+   * process. Set to false to force fresh run for every call
+   */
+  boolean coalesce() default true;
+
+  /**
+   * Run command in one of long-lived shell processes instead of starting new process for every call. Makes sense for
+   * short commands where process start dominates. Ignored on Windows and for commands with multiple parts. See also
+   * HardwareRepository.persistentShell
+   */
+  boolean persistentShell() default false;
 }
@@ -17,4 +17,7 @@ public @interface HardwareRepository {
 
   // uses for logical description. Uses in toString() method
   String description() default "";
+
+  // run all queries of repository in long-lived shell processes. See HardwareQuery.persistentShell
+  boolean persistentShell() default false;
 }
@@ -0,0 +1,18 @@
+package org.homio.hquery.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Drop cached results of FileQuery methods that read listed files after annotated method returns or throws. May be
+ * placed on default methods that write files directly as well as on HardwareQuery methods.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface InvalidatesCache {
+
+  /** File paths exactly as in FileQuery.value(). Supports :param and ${env} placeholders */
+  String[] files();
+}
@@ -16,6 +16,7 @@ import lombok.SneakyThrows;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.homio.hquery.api.*;
+import org.homio.hquery.api.ListParse.LineParse;
 
 @HardwareRepository(stringValueOnDisable = "N/A")
 public interface NetworkHardwareRepository {
@@ -85,6 +86,21 @@ public interface NetworkHardwareRepository {
     @ListParse(delimiter = ".*Cell \\d\\d.*", clazz = Network.class)
     List<Network> scan(@HQueryParam("iface") String iface);
 
+    /**
+     * Same as scan(iface) but every network is passed to networkConsumer as soon as it parsed, while scan still running
+     */
+    @HardwareQuery(name = "Scan networks", value = "iwlist :iface scan")
+    @ErrorsHandler(onRetCodeError = "Got some major errors from our scan command",
+            notRecognizeError = "Got some errors from our scan command",
+            errorHandlers = {
+                    @ErrorsHandler.ErrorHandler(onError = "Device or resource busy",
+                            throwError = "Scans are overlapping; slow down putToCache frequency"),
+                    @ErrorsHandler.ErrorHandler(onError = "Allocation failed",
+                            throwError = "Too many networks for iwlist to handle")
+            })
+    @ListParse(delimiter = ".*Cell \\d\\d.*", clazz = Network.class)
+    List<Network> scan(@HQueryParam("iface") String iface, Consumer<Network> networkConsumer);
+
     @HardwareQuery(name = "Network stat", value = "iwconfig :iface")
     @ErrorsHandler(onRetCodeError = "Error getting wireless devices information")
     NetworkStat stat(@HQueryParam("iface") String iface);
@@ -124,14 +140,22 @@ public interface NetworkHardwareRepository {
     @HardwareQuery(name = "Get network description", value = "ifconfig :iface", ignoreOnError = true)
     NetworkDescription getNetworkDescription(@HQueryParam("iface") String iface);
 
-    @HardwareQuery(name = "Get wifi password",
-            value = "grep -r 'psk=' /etc/wpa_supplicant/wpa_supplicant.conf | cut -d = -f 2 | cut -d \\\" -f 2")
+    /**
+     * @return psk of wpa_supplicant.conf or null if file is missing, unreadable or has no psk. Read error is logged,
+     * not thrown, same as former grep pipeline which printed nothing in such cases
+     */
+    @FileQuery(name = "Get wifi password", value = "/etc/wpa_supplicant/wpa_supplicant.conf", ignoreOnError = true,
+            cacheValid = Integer.MAX_VALUE, watch = true)
+    @LineParse("\\s*psk=(.*)")
     String getWifiPassword();
 
     @CurlQuery(value = "http://checkip.amazonaws.com", cache = true, ignoreOnError = true,
             mapping = TrimEndMapping.class, valueOnError = "127.0.0.1")
     String getOuterIpAddress();
 
+    /**
+     * One blocking connect task per address and port. See scanPorts for scan of whole range from one thread
+     */
     default Map<String, Callable<Integer>> buildPingIpAddressTasks(String pinIpAddressRange, Consumer<String> log, Set<Integer> ports,
                                                                    int timeout, BiConsumer<String, Integer> handler) {
         if (pinIpAddressRange == null) {
@@ -163,6 +187,28 @@ public interface NetworkHardwareRepository {
         return tasks;
     }
 
+    /**
+     * Check ports of all addresses of range by non-blocking connects multiplexed in calling thread. Open address/port
+     * pairs are passed to handler as soon as connected.
+     *
+     * @param range   - xxx.xxx.xxx.xxx-yyy or CIDR xxx.xxx.xxx.xxx/nn
+     * @param timeout - connect timeout in milliseconds
+     * @return count of open address/port pairs
+     */
+    @SneakyThrows
+    default int scanPorts(String range, Set<Integer> ports, int timeout, BiConsumer<String, Integer> handler) {
+        return PortScanner.scan(PortScanner.parseRange(range), ports, timeout, PortScanner.DEFAULT_CONCURRENCY, handler);
+    }
+
+    /**
+     * Same as scanPorts(range, ...) for network of interface address, i.e. from getAllInterfaceAddresses()
+     */
+    @SneakyThrows
+    default int scanPorts(CidrAddress network, Set<Integer> ports, int timeout, int concurrency,
+                          BiConsumer<String, Integer> handler) {
+        return PortScanner.scan(PortScanner.addresses(network), ports, timeout, concurrency, handler);
+    }
+
     default boolean pingAddress(String ipAddress, int port, int timeout) {
         try {
             try (Socket socket = new Socket()) {
@@ -235,6 +281,7 @@ public interface NetworkHardwareRepository {
     }
 
     @SneakyThrows
+    @InvalidatesCache(files = "/etc/wpa_supplicant/wpa_supplicant.conf")
     default void setWifiCredentials(String ssid, String password, String country) {
         String code = """
                 ctrl_interface=DIR=/var/run/wpa_supplicant GROUP=netdev
@@ -259,18 +306,22 @@ public interface NetworkHardwareRepository {
     @HardwareQuery(name = "Check ssh keys exists", value = "test -f ~/.ssh/id_rsa", cacheValid = 3600)
     boolean isSshGenerated();
 
-    @HardwareQuery(name = "Test if cable ethX connected", value = "cat /sys/class/net/:iface/carrier")
+    @FileQuery(name = "Test if cable ethX connected", value = "/sys/class/net/:iface/carrier")
     boolean isNetworkCableConnected(@HQueryParam("iface") String iface);
 
     @HardwareQuery(name = "Generate ssh keys", value = "cat /dev/zero | ssh-keygen -q -N \"\"")
     void generateSSHKeys();
 
+    // same as getNetworkDescription(getActiveNetworkInterface()) but in one process: first interface that is UP. Exits
+    // with 0 and empty output if no active interface, so result is null or has no inet
+    @HardwareQuery(name = "Get active network description",
+            value = "iface=$(ip addr | awk '/state UP/ {print $2}' | sed 's/.$//' | head -n1); [ -z \"$iface\" ] || ifconfig \"$iface\"",
+            ignoreOnError = true)
+    NetworkDescription getActiveNetworkDescription();
+
     default Optional<NetworkDescription> getNetworkDescription() {
         if (!SystemUtils.IS_OS_WINDOWS) {
-            String activeNetworkInterface = getActiveNetworkInterface();
-            if (StringUtils.isNotEmpty(activeNetworkInterface)) {
-                return Optional.ofNullable(getNetworkDescription(activeNetworkInterface));
-            }
+            return Optional.ofNullable(getActiveNetworkDescription()).filter(description -> description.getInet() != null);
         }
         return Optional.empty();
     }
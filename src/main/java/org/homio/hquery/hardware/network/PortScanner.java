@@ -0,0 +1,261 @@
+package org.homio.hquery.hardware.network;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+import org.homio.hquery.hardware.network.NetworkHardwareRepository.CidrAddress;
+
+/**
+ * TCP connect scanner. All connect attempts are non-blocking and multiplexed by one Selector in calling thread, so
+ * thousands of address/port pairs are checked without thread per attempt. At most concurrency connects are in flight,
+ * every one is closed when it succeeds, fails or its timeout expires.
+ */
+public final class PortScanner {
+
+    public static final int DEFAULT_CONCURRENCY = 256;
+    // scan of larger network takes hours even without blocking
+    private static final int MIN_IPV4_PREFIX = 16;
+    private static final Pattern IP_RANGE = Pattern.compile(NetworkDescription.IP_RANGE_PATTERN);
+
+    private PortScanner() {
+    }
+
+    /**
+     * @param range - xxx.xxx.xxx.xxx-yyy (last octet from xxx to yyy exclusive, as buildPingIpAddressTasks) or CIDR
+     *              notation xxx.xxx.xxx.xxx/nn
+     * @return IPv4 addresses of range
+     */
+    public static List<InetAddress> parseRange(String range) {
+        if (range == null) {
+            throw new IllegalArgumentException("Unable to proceed due ip address not found. Please check you connected to Router");
+        }
+        int slash = range.indexOf('/');
+        if (slash > 0) {
+            try {
+                return addresses(new CidrAddress(InetAddress.getByName(range.substring(0, slash)),
+                        Short.parseShort(range.substring(slash + 1))));
+            } catch (UnknownHostException | NumberFormatException ex) {
+                throw new IllegalArgumentException("Address not match pattern xxx.xxx.xxx.xxx/nn", ex);
+            }
+        }
+        if (!IP_RANGE.matcher(range).matches()) {
+            throw new IllegalArgumentException("Address not match patter xxx.xxx.xxx-xxx");
+        }
+        String[] parts = range.split("-");
+        int first = toInt(parseIPv4(parts[0]));
+        int last = (first & 0xFFFFFF00) | Integer.parseInt(parts[1]);
+        List<InetAddress> addresses = new ArrayList<>();
+        for (int address = first; address < last; address++) {
+            addresses.add(toAddress(address));
+        }
+        return addresses;
+    }
+
+    /**
+     * Host addresses of network of interface address, i.e. from getAllInterfaceAddresses(). Network and broadcast
+     * addresses are excluded. IPv6 networks are too large to scan and return empty list.
+     */
+    public static List<InetAddress> addresses(CidrAddress cidr) {
+        if (!(cidr.address() instanceof Inet4Address)) {
+            return List.of();
+        }
+        int prefix = cidr.prefix();
+        if (prefix < MIN_IPV4_PREFIX || prefix > 32) {
+            throw new IllegalArgumentException("Unable to scan network with prefix /" + prefix);
+        }
+        int mask = -1 << (32 - prefix);
+        int network = toInt(cidr.address()) & mask;
+        int broadcast = network | ~mask;
+        List<InetAddress> addresses = new ArrayList<>();
+        if (prefix >= 31) {
+            // point-to-point links have no network and broadcast addresses
+            for (long address = network & 0xFFFFFFFFL; address <= (broadcast & 0xFFFFFFFFL); address++) {
+                addresses.add(toAddress((int) address));
+            }
+        } else {
+            for (long address = (network & 0xFFFFFFFFL) + 1; address < (broadcast & 0xFFFFFFFFL); address++) {
+                addresses.add(toAddress((int) address));
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Check every address/port pair and pass open ones to handler. Blocks until all attempts are finished, handler is
+     * called from calling thread.
+     *
+     * @param timeout     - connect timeout in milliseconds of every attempt
+     * @param concurrency - max count of connects in flight. Every connect holds file descriptor
+     * @return count of open address/port pairs
+     */
+    public static int scan(Collection<InetAddress> addresses, Collection<Integer> ports, int timeout, int concurrency,
+                           BiConsumer<String, Integer> handler) throws IOException {
+        Iterator<Target> targets = targets(addresses, ports);
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeout, 1));
+        // same timeout for all attempts, so started order is deadline order
+        ArrayDeque<SelectionKey> started = new ArrayDeque<>();
+        int inFlight = 0;
+        int found = 0;
+        Target deferred = null;
+        try (Selector selector = Selector.open()) {
+            while (true) {
+                while (inFlight < Math.max(concurrency, 1) && (deferred != null || targets.hasNext())) {
+                    Target target = deferred == null ? targets.next() : deferred;
+                    deferred = null;
+                    SocketChannel channel;
+                    try {
+                        channel = SocketChannel.open();
+                    } catch (IOException ex) {
+                        // out of file descriptors: wait for running attempts to release some
+                        if (inFlight == 0) {
+                            throw ex;
+                        }
+                        deferred = target;
+                        break;
+                    }
+                    target.deadline = System.nanoTime() + timeoutNanos;
+                    try {
+                        channel.configureBlocking(false);
+                        if (channel.connect(new InetSocketAddress(target.address, target.port))) {
+                            channel.close();
+                            found++;
+                            handler.accept(target.address.getHostAddress(), target.port);
+                            continue;
+                        }
+                        started.add(channel.register(selector, SelectionKey.OP_CONNECT, target));
+                        inFlight++;
+                    } catch (IOException ex) {
+                        // i.e. network unreachable
+                        channel.close();
+                    }
+                }
+                if (inFlight == 0) {
+                    return found;
+                }
+
+                long wait = TimeUnit.NANOSECONDS.toMillis(((Target) started.getFirst().attachment()).deadline - System.nanoTime());
+                // keys selected by selectNow() below are handled without waiting
+                if (selector.selectedKeys().isEmpty()) {
+                    selector.select(Math.max(wait, 1));
+                } else {
+                    selector.selectNow();
+                }
+                int released = 0;
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Target target = (Target) key.attachment();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    boolean connected;
+                    try {
+                        connected = channel.finishConnect();
+                        if (!connected) {
+                            // spurious wakeup, connect still in progress
+                            continue;
+                        }
+                    } catch (IOException ex) {
+                        connected = false;
+                    }
+                    channel.close();
+                    inFlight--;
+                    released++;
+                    if (connected) {
+                        found++;
+                        handler.accept(target.address.getHostAddress(), target.port);
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.nanoTime();
+                while (!started.isEmpty()) {
+                    SelectionKey key = started.getFirst();
+                    if (key.isValid() && now - ((Target) key.attachment()).deadline < 0) {
+                        break;
+                    }
+                    started.removeFirst();
+                    if (key.isValid()) {
+                        key.channel().close();
+                        inFlight--;
+                        released++;
+                    }
+                }
+                if (released > 0) {
+                    // socket of registered channel is closed only on next selection operation, release it before new
+                    // connects are opened
+                    selector.selectNow();
+                }
+            }
+        } finally {
+            for (SelectionKey key : started) {
+                key.channel().close();
+            }
+        }
+    }
+
+    private static Iterator<Target> targets(Collection<InetAddress> addresses, Collection<Integer> ports) {
+        List<InetAddress> addressList = List.copyOf(addresses);
+        List<Integer> portList = List.copyOf(ports);
+        return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < addressList.size() * portList.size();
+            }
+
+            @Override
+            public Target next() {
+                // port by port, so attempts to same host are spread in time
+                Target target = new Target(addressList.get(index % addressList.size()),
+                        portList.get(index / addressList.size()));
+                index++;
+                return target;
+            }
+        };
+    }
+
+    private static InetAddress parseIPv4(String address) {
+        try {
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException("Wrong ip address: " + address, ex);
+        }
+    }
+
+    private static int toInt(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+    }
+
+    private static InetAddress toAddress(int address) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) (address >>> 24), (byte) (address >>> 16),
+                    (byte) (address >>> 8), (byte) address});
+        } catch (UnknownHostException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static final class Target {
+
+        private final InetAddress address;
+        private final int port;
+        private long deadline;
+
+        private Target(InetAddress address, int port) {
+            this.address = address;
+            this.port = port;
+        }
+    }
+}
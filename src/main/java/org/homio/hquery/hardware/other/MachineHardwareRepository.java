@@ -7,11 +7,16 @@ import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 import lombok.SneakyThrows;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
+import org.homio.hquery.HQueryBatch;
+import org.homio.hquery.HQueryBatch.Result;
 import org.homio.hquery.ProgressBar;
+import org.homio.hquery.api.FileQuery;
 import org.homio.hquery.api.HQueryMaxWaitTimeout;
 import org.homio.hquery.api.HQueryParam;
 import org.homio.hquery.api.HardwareQuery;
@@ -61,6 +66,17 @@ public interface MachineHardwareRepository {
     ArrayList<String> executeNoErrorThrowList(@HQueryParam("command") String command,
         @HQueryMaxWaitTimeout int maxSecondsTimeout, ProgressBar progressBar);
 
+    /**
+     * Lines are read while stream is consumed. Stream must be closed, closing stream kills the process
+     */
+    @HardwareQuery(name = "Execute general command", value = ":command", win = ":command", ignoreOnError = true, redirectErrorsToInputs = true)
+    Stream<String> executeNoErrorThrowStream(@HQueryParam("command") String command,
+        @HQueryMaxWaitTimeout int maxSecondsTimeout);
+
+    @HardwareQuery(name = "Execute general command", value = ":command", win = ":command")
+    Flow.Publisher<String> executePublisher(@HQueryParam("command") String command,
+        @HQueryMaxWaitTimeout int maxSecondsTimeout);
+
     @HardwareQuery(name = "Execute general command", value = ":command", win = ":command")
     String execute(@HQueryParam("command") String command, ProgressBar progressBar);
 
@@ -83,7 +99,8 @@ public interface MachineHardwareRepository {
     @HardwareQuery(name = "Reboot device", value = "reboot", printOutput = true)
     void reboot();
 
-    @HardwareQuery(name = "Get OS name", value = "cat /etc/os-release", cacheValid = Integer.MAX_VALUE, printOutput = true)
+    @FileQuery(name = "Get OS name", value = "/etc/os-release", cacheValid = Integer.MAX_VALUE, watch = true,
+            printOutput = true)
     HardwareOs getOs();
 
     @HardwareQuery(name = "Change file permission", value = "chmod :mode -R :path", printOutput = true)
@@ -100,9 +117,15 @@ public interface MachineHardwareRepository {
     void uninstallSoftware(@HQueryParam("soft") String soft, @HQueryMaxWaitTimeout int maxSecondsTimeout,
                          ProgressBar progressBar);
 
+    @HardwareQuery(name = "Install software", value = "$INSTALL :soft")
+    Flow.Publisher<String> installSoftwareOutput(@HQueryParam("soft") String soft, @HQueryMaxWaitTimeout int maxSecondsTimeout);
+
     @HardwareQuery(name = "Update", value = "$UPDATE")
     void update(@HQueryMaxWaitTimeout int maxSecondsTimeout, ProgressBar progressBar);
 
+    @HardwareQuery(name = "Update", value = "$UPDATE")
+    Flow.Publisher<String> updateOutput(@HQueryMaxWaitTimeout int maxSecondsTimeout);
+
     @HardwareQuery(name = "Enable systemctl service", value = "systemctl enable :soft", printOutput = true)
     void enableSystemCtl(@HQueryParam("soft") String soft);
 
@@ -171,15 +194,27 @@ public interface MachineHardwareRepository {
             info.cpuNum = Runtime.getRuntime().availableProcessors();
             info.os = SystemUtils.OS_NAME + ". Version: " + SystemUtils.OS_VERSION + ". Arch: " + SystemUtils.OS_ARCH;
             if (SystemUtils.IS_OS_LINUX) {
-                info.networkNodeHostname = execute("hostname");
-                info.kernelName = execute("uname -s");
-                info.kernelRelease = execute("uname -r");
-                info.kernelVersion = execute("uname -v");
-                info.machineName = execute("uname -m");
-                info.processorType = execute("uname -p");
-                info.operationSystem = execute("uname -o");
-
-                ArrayList<String> list = executeNoErrorThrowList("lscpu", 60, null);
+                // all commands in one process
+                HQueryBatch<MachineHardwareRepository> batch = HQueryBatch.of(this);
+                Result<String> hostname = batch.add(repository -> repository.execute("hostname"));
+                Result<String> kernelName = batch.add(repository -> repository.execute("uname -s"));
+                Result<String> kernelRelease = batch.add(repository -> repository.execute("uname -r"));
+                Result<String> kernelVersion = batch.add(repository -> repository.execute("uname -v"));
+                Result<String> machineName = batch.add(repository -> repository.execute("uname -m"));
+                Result<String> processorType = batch.add(repository -> repository.execute("uname -p"));
+                Result<String> operationSystem = batch.add(repository -> repository.execute("uname -o"));
+                Result<ArrayList<String>> lscpu = batch.add(repository -> repository.executeNoErrorThrowList("lscpu", 60, null));
+                batch.execute();
+
+                info.networkNodeHostname = hostname.get();
+                info.kernelName = kernelName.get();
+                info.kernelRelease = kernelRelease.get();
+                info.kernelVersion = kernelVersion.get();
+                info.machineName = machineName.get();
+                info.processorType = processorType.get();
+                info.operationSystem = operationSystem.get();
+
+                ArrayList<String> list = lscpu.get();
                 info.architecture = parseInfoLine(list, "Architecture");
                 info.cpuVendorID = parseInfoLine(list, "Vendor ID");
                 info.processorModelName = parseInfoLine(list, "Model name");
@@ -0,0 +1,19 @@
+package org.homio.hquery.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of hardware repository queries registered as org.homio.hquery:type=Metrics
+ */
+public interface HQueryMetricsMXBean {
+
+  /**
+   * Upper bounds of invocation latency buckets in milliseconds. Last bucket of QueryMetrics.latencyHistogram counts
+   * invocations longer than last bound
+   */
+  long[] getLatencyBucketsMs();
+
+  List<QueryMetrics> getQueries();
+
+  void reset();
+}
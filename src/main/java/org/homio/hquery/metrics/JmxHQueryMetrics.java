@@ -0,0 +1,186 @@
+package org.homio.hquery.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.homio.hquery.HQueryMetrics;
+
+/**
+ * Aggregates query measurements in memory and exposes them as MXBean. Enabled by hquery.metrics.jmx=true
+ */
+public class JmxHQueryMetrics implements HQueryMetrics, HQueryMetricsMXBean, AutoCloseable {
+
+    private static final long[] LATENCY_BUCKETS_MS = {1, 5, 10, 50, 100, 500, 1000, 5000, 30000};
+    private static final double NANOS_IN_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Map<Query, Stats> stats = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    /**
+     * Register in platform MBean server as org.homio.hquery:type=Metrics. If several application contexts register
+     * metrics, next ones get ',context=N' suffix
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (int i = 0; objectName == null; i++) {
+                ObjectName name = new ObjectName("org.homio.hquery:type=Metrics" + (i == 0 ? "" : ",context=" + i));
+                try {
+                    server.registerMBean(this, name);
+                    objectName = name;
+                } catch (InstanceAlreadyExistsException ignore) {
+                }
+            }
+        } catch (JMException ex) {
+            throw new IllegalStateException("Unable to register hquery metrics MBean", ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignore) {
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public void recordInvocation(Query query, long nanos, boolean success) {
+        Stats item = get(query);
+        item.invocations.increment();
+        if (!success) {
+            item.failures.increment();
+        }
+        item.totalNanos.add(nanos);
+        item.maxNanos.accumulateAndGet(nanos, Math::max);
+        long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && ms >= LATENCY_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        item.latencyHistogram[bucket].increment();
+    }
+
+    @Override
+    public void recordPhase(Query query, Phase phase, long nanos) {
+        get(query).phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    @Override
+    public void recordSpawn(Query query, boolean pooledShell) {
+        (pooledShell ? get(query).pooledShellSpawns : get(query).spawns).increment();
+    }
+
+    @Override
+    public void recordExit(Query query, int exitCode, boolean timeout) {
+        Stats item = get(query);
+        item.lastExitCode.set(exitCode);
+        if (exitCode != 0) {
+            item.nonZeroExits.increment();
+        }
+        if (timeout) {
+            item.timeouts.increment();
+        }
+    }
+
+    @Override
+    public void recordOutput(Query query, long lines, long bytes) {
+        Stats item = get(query);
+        item.outputLines.add(lines);
+        item.outputBytes.add(bytes);
+    }
+
+    @Override
+    public void recordCache(Query query, boolean hit) {
+        (hit ? get(query).cacheHits : get(query).cacheMisses).increment();
+    }
+
+    @Override
+    public void recordInFlight(Query query, int delta) {
+        get(query).inFlight.addAndGet(delta);
+    }
+
+    @Override
+    public long[] getLatencyBucketsMs() {
+        return LATENCY_BUCKETS_MS.clone();
+    }
+
+    @Override
+    public List<QueryMetrics> getQueries() {
+        List<QueryMetrics> result = new ArrayList<>();
+        for (Map.Entry<Query, Stats> entry : stats.entrySet()) {
+            result.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        result.sort(Comparator.comparing(QueryMetrics::getRepository).thenComparing(QueryMetrics::getMethod)
+                              .thenComparing(QueryMetrics::getName));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        stats.clear();
+    }
+
+    private Stats get(Query query) {
+        return stats.computeIfAbsent(query, q -> new Stats());
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / NANOS_IN_MS;
+    }
+
+    private static final class Stats {
+
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder[] latencyHistogram = newAdders(LATENCY_BUCKETS_MS.length + 1);
+        private final LongAdder[] phaseNanos = newAdders(Phase.values().length);
+        private final LongAdder spawns = new LongAdder();
+        private final LongAdder pooledShellSpawns = new LongAdder();
+        private final LongAdder nonZeroExits = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final AtomicInteger lastExitCode = new AtomicInteger();
+        private final LongAdder outputLines = new LongAdder();
+        private final LongAdder outputBytes = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder cacheMisses = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private QueryMetrics snapshot(Query query) {
+            long count = invocations.sum();
+            long hits = cacheHits.sum();
+            long misses = cacheMisses.sum();
+            return new QueryMetrics(query.repository(), query.method(), query.name(), count, failures.sum(),
+                    count == 0 ? 0 : toMs(totalNanos.sum()) / count, toMs(maxNanos.get()),
+                    Arrays.stream(latencyHistogram).mapToLong(LongAdder::sum).toArray(),
+                    toMs(phaseNanos[Phase.BUILD.ordinal()].sum()), toMs(phaseNanos[Phase.PROCESS.ordinal()].sum()),
+                    toMs(phaseNanos[Phase.DRAIN.ordinal()].sum()), toMs(phaseNanos[Phase.PARSE.ordinal()].sum()),
+                    spawns.sum(), pooledShellSpawns.sum(), nonZeroExits.sum(), timeouts.sum(), lastExitCode.get(),
+                    outputLines.sum(), outputBytes.sum(), hits, misses,
+                    hits + misses == 0 ? 0 : (double) hits / (hits + misses), inFlight.get());
+        }
+
+        private static LongAdder[] newAdders(int size) {
+            LongAdder[] adders = new LongAdder[size];
+            Arrays.setAll(adders, i -> new LongAdder());
+            return adders;
+        }
+    }
+}
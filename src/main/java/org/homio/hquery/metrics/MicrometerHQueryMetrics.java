@@ -0,0 +1,160 @@
+package org.homio.hquery.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.homio.hquery.HQueryMetrics;
+
+/**
+ * Publishes query measurements to Micrometer. Registered automatically if micrometer is on classpath and
+ * hquery.metrics.micrometer=true; Spring Boot actuator binds it to application MeterRegistry. Measurements recorded
+ * before bindTo() are dropped, except number of running processes that is tracked regardless of registry. Meters are
+ * tagged with repository, method and query:
+ * <ul>
+ *   <li>hquery.invocation - timer with outcome tag</li>
+ *   <li>hquery.phase - timer with phase tag: build, process, drain, parse</li>
+ *   <li>hquery.spawn - counter with shell tag: process or pooled</li>
+ *   <li>hquery.exit - counter with code and timeout tags</li>
+ *   <li>hquery.output.lines, hquery.output.bytes - distribution summaries</li>
+ *   <li>hquery.cache - counter with result tag: hit or miss</li>
+ *   <li>hquery.inflight - gauge of running processes</li>
+ * </ul>
+ */
+public class MicrometerHQueryMetrics implements HQueryMetrics, MeterBinder {
+
+    private final Map<Query, QueryMeters> meters = new ConcurrentHashMap<>();
+    // outlives meters of previous registry, so processes started before bindTo() are counted after their exit
+    private final Map<Query, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        meters.clear();
+        // gauges of queries that ran before binding
+        inFlight.keySet().forEach(this::get);
+    }
+
+    @Override
+    public void recordInvocation(Query query, long nanos, boolean success) {
+        QueryMeters item = get(query);
+        if (item != null) {
+            (success ? item.success : item.failure).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void recordPhase(Query query, Phase phase, long nanos) {
+        QueryMeters item = get(query);
+        if (item != null) {
+            item.phases[phase.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void recordSpawn(Query query, boolean pooledShell) {
+        QueryMeters item = get(query);
+        if (item != null) {
+            (pooledShell ? item.pooledShellSpawns : item.spawns).increment();
+        }
+    }
+
+    @Override
+    public void recordExit(Query query, int exitCode, boolean timeout) {
+        QueryMeters item = get(query);
+        if (item != null) {
+            item.exits.computeIfAbsent(timeout ? -exitCode - 1 : exitCode, key ->
+                    Counter.builder("hquery.exit").tags(item.tags)
+                           .tag("code", Integer.toString(exitCode))
+                           .tag("timeout", Boolean.toString(timeout))
+                           .register(item.registry)).increment();
+        }
+    }
+
+    @Override
+    public void recordOutput(Query query, long lines, long bytes) {
+        QueryMeters item = get(query);
+        if (item != null) {
+            item.lines.record(lines);
+            item.bytes.record(bytes);
+        }
+    }
+
+    @Override
+    public void recordCache(Query query, boolean hit) {
+        QueryMeters item = get(query);
+        if (item != null) {
+            (hit ? item.cacheHits : item.cacheMisses).increment();
+        }
+    }
+
+    @Override
+    public void recordInFlight(Query query, int delta) {
+        inFlight(query).addAndGet(delta);
+        // registers gauge on first use
+        get(query);
+    }
+
+    private AtomicInteger inFlight(Query query) {
+        return inFlight.computeIfAbsent(query, q -> new AtomicInteger());
+    }
+
+    private QueryMeters get(Query query) {
+        MeterRegistry current = registry;
+        if (current == null) {
+            return null;
+        }
+        return meters.computeIfAbsent(query, q -> new QueryMeters(current, q, inFlight(q)));
+    }
+
+    private static final class QueryMeters {
+
+        private final MeterRegistry registry;
+        private final Tags tags;
+        private final Timer success;
+        private final Timer failure;
+        private final Timer[] phases = new Timer[Phase.values().length];
+        private final Counter spawns;
+        private final Counter pooledShellSpawns;
+        // by exit code, or -code-1 for killed processes
+        private final Map<Integer, Counter> exits = new ConcurrentHashMap<>();
+        private final DistributionSummary lines;
+        private final DistributionSummary bytes;
+        private final Counter cacheHits;
+        private final Counter cacheMisses;
+
+        private QueryMeters(MeterRegistry registry, Query query, AtomicInteger inFlight) {
+            this.registry = registry;
+            this.tags = Tags.of("repository", query.repository(), "method", query.method(), "query", query.name());
+            this.success = invocationTimer("success");
+            this.failure = invocationTimer("failure");
+            for (Phase phase : Phase.values()) {
+                phases[phase.ordinal()] = Timer.builder("hquery.phase").tags(tags)
+                                               .tag("phase", phase.name().toLowerCase())
+                                               .register(registry);
+            }
+            this.spawns = Counter.builder("hquery.spawn").tags(tags).tag("shell", "process").register(registry);
+            this.pooledShellSpawns = Counter.builder("hquery.spawn").tags(tags).tag("shell", "pooled").register(registry);
+            this.lines = DistributionSummary.builder("hquery.output.lines").tags(tags).register(registry);
+            this.bytes = DistributionSummary.builder("hquery.output.bytes").tags(tags).baseUnit("bytes").register(registry);
+            this.cacheHits = Counter.builder("hquery.cache").tags(tags).tag("result", "hit").register(registry);
+            this.cacheMisses = Counter.builder("hquery.cache").tags(tags).tag("result", "miss").register(registry);
+            Gauge.builder("hquery.inflight", inFlight, AtomicInteger::get).tags(tags).strongReference(true)
+                 .register(registry);
+        }
+
+        private Timer invocationTimer(String outcome) {
+            return Timer.builder("hquery.invocation").tags(tags).tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .register(registry);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.homio.hquery.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Snapshot of one query measurements exposed by JmxHQueryMetrics. Times are in milliseconds
+ */
+@Getter
+@AllArgsConstructor
+public final class QueryMetrics {
+
+  private final String repository;
+  private final String method;
+  private final String name;
+  private final long invocations;
+  private final long failures;
+  private final double meanMs;
+  private final double maxMs;
+  private final long[] latencyHistogram;
+  private final double buildMs;
+  private final double processMs;
+  private final double drainMs;
+  private final double parseMs;
+  private final long spawns;
+  private final long pooledShellSpawns;
+  private final long nonZeroExits;
+  private final long timeouts;
+  private final int lastExitCode;
+  private final long outputLines;
+  private final long outputBytes;
+  private final long cacheHits;
+  private final long cacheMisses;
+  private final double cacheHitRatio;
+  private final int inFlight;
+}
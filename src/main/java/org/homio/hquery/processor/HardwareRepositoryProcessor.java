@@ -0,0 +1,228 @@
+package org.homio.hquery.processor;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import org.homio.hquery.HQueryDispatcher;
+import org.homio.hquery.HQueryFactoryPostProcessor;
+
+/**
+ * Generates implementation class for every @HardwareRepository interface. Abstract methods pass their index and
+ * arguments to HQueryDispatcher, default methods are inherited and called directly. Default methods with
+ * InvalidatesCache are dispatched as well, so cache is invalidated after their body is invoked by dispatcher. HQueryFactoryPostProcessor
+ * registers generated class instead of java.lang.reflect.Proxy when it is found on classpath.
+ * Generic repository interfaces are skipped and keep using proxy.
+ * <p>
+ * Binary names of all repository interfaces are written to META-INF/hquery/repositories, which is read at startup
+ * instead of scanning classpath. Entries of previous incremental compilation are kept if type still exists.
+ */
+@SupportedAnnotationTypes(HardwareRepositoryProcessor.HARDWARE_REPOSITORY)
+public class HardwareRepositoryProcessor extends AbstractProcessor {
+
+    static final String HARDWARE_REPOSITORY = "org.homio.hquery.api.HardwareRepository";
+    static final String INVALIDATES_CACHE = "org.homio.hquery.api.InvalidatesCache";
+
+    private final Set<String> repositories = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.INTERFACE) {
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                repositories.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+                if (!type.getTypeParameters().isEmpty() || type.getModifiers().contains(Modifier.PRIVATE)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                            "Generic or private hardware repository is implemented by proxy", type);
+                    continue;
+                }
+                try {
+                    generate(type);
+                } catch (IOException ex) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Unable to generate hardware repository implementation: " + ex.getMessage(), type);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        String location = HQueryFactoryPostProcessor.REPOSITORY_INDEX;
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", location);
+            try (BufferedReader reader = new BufferedReader(existing.openReader(true))) {
+                reader.lines().map(String::trim).filter(this::isRepository).forEach(repositories::add);
+            }
+        } catch (FileNotFoundException | NoSuchFileException ignore) {
+        } catch (IOException | IllegalArgumentException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Unable to read previous " + location
+                    + ": " + ex.getMessage());
+        }
+        if (repositories.isEmpty()) {
+            return;
+        }
+        try (Writer writer = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", location)
+                                          .openWriter()) {
+            for (String repository : repositories) {
+                writer.write(repository);
+                writer.write('\n');
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write " + location + ": " + ex.getMessage());
+        }
+    }
+
+    private boolean isRepository(String binaryName) {
+        if (binaryName.isEmpty() || repositories.contains(binaryName)) {
+            return false;
+        }
+        TypeElement type = processingEnv.getElementUtils().getTypeElement(binaryName.replace('$', '.'));
+        return type != null && hasAnnotation(type, HARDWARE_REPOSITORY);
+    }
+
+    private static boolean hasAnnotation(Element element, String annotationName) {
+        return element.getAnnotationMirrors().stream().anyMatch(annotation ->
+                ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+                                                                       .contentEquals(annotationName));
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String implName = HQueryDispatcher.implementationName(binaryName);
+        String simpleName = implName.substring(implName.lastIndexOf('.') + 1);
+        String repository = type.getQualifiedName().toString();
+
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            Set<Modifier> modifiers = member.getModifiers();
+            if (member.getKind() == ElementKind.METHOD && !modifiers.contains(Modifier.STATIC)
+                    && (modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.DEFAULT)
+                    && hasAnnotation(member, INVALIDATES_CACHE))) {
+                methods.add((ExecutableElement) member);
+            }
+        }
+
+        StringBuilder code = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            code.append("package ").append(packageName).append(";\n\n");
+        }
+        code.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+            .append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+            .append("public final class ").append(simpleName).append(" implements ").append(repository)
+            .append(", org.homio.hquery.HQueryDispatcher.Owner {\n\n")
+            .append("    private final org.homio.hquery.HQueryDispatcher dispatcher;\n\n")
+            .append("    public ").append(simpleName).append("(org.homio.hquery.HQueryDispatcher dispatcher) {\n")
+            .append("        this.dispatcher = dispatcher;\n")
+            .append("    }\n\n")
+            .append("    /**\n     * Methods in order of dispatch indexes\n     */\n")
+            .append("    public static java.lang.reflect.Method[] hQueryMethods() throws NoSuchMethodException {\n")
+            .append("        return new java.lang.reflect.Method[]{");
+        for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+            code.append(i == 0 ? "\n" : ",\n").append("                ").append(repository).append(".class.getMethod(\"")
+                .append(method.getSimpleName()).append('"');
+            for (VariableElement parameter : method.getParameters()) {
+                code.append(", ").append(processingEnv.getTypeUtils().erasure(parameter.asType())).append(".class");
+            }
+            code.append(')');
+        }
+        code.append("\n        };\n    }\n\n")
+            .append("    @Override\n")
+            .append("    public org.homio.hquery.HQueryDispatcher hQueryDispatcher() {\n")
+            .append("        return dispatcher;\n")
+            .append("    }\n\n")
+            .append("    @Override\n")
+            .append("    public String toString() {\n")
+            .append("        return dispatcher.toString();\n")
+            .append("    }\n");
+        for (int i = 0; i < methods.size(); i++) {
+            appendMethod(code, methods.get(i), i);
+        }
+        code.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(implName, type).openWriter()) {
+            writer.write(code.toString());
+        }
+    }
+
+    private static void appendMethod(StringBuilder code, ExecutableElement method, int index) {
+        code.append("\n    @Override\n    public ");
+        if (!method.getTypeParameters().isEmpty()) {
+            code.append(method.getTypeParameters().stream().map(HardwareRepositoryProcessor::typeParameter)
+                              .collect(Collectors.joining(", ", "<", "> ")));
+        }
+        TypeMirror returnType = method.getReturnType();
+        code.append(returnType).append(' ').append(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            String parameterType = parameters.get(i).asType().toString();
+            if (method.isVarArgs() && i == parameters.size() - 1) {
+                parameterType = parameterType.substring(0, parameterType.length() - 2) + "...";
+            }
+            code.append(i == 0 ? "" : ", ").append(parameterType).append(' ').append(parameters.get(i).getSimpleName());
+        }
+        code.append(')');
+        if (!method.getThrownTypes().isEmpty()) {
+            code.append(method.getThrownTypes().stream().map(TypeMirror::toString)
+                              .collect(Collectors.joining(", ", " throws ", "")));
+        }
+        code.append(" {\n        ");
+        if (returnType.getKind() != TypeKind.VOID) {
+            code.append("return (").append(returnType).append(") ");
+        }
+        code.append("this.dispatcher.dispatch(").append(index).append(", ");
+        if (parameters.isEmpty()) {
+            code.append("null");
+        } else {
+            code.append(parameters.stream().map(parameter -> parameter.getSimpleName().toString())
+                                  .collect(Collectors.joining(", ", "new Object[]{", "}")));
+        }
+        code.append(");\n    }\n");
+    }
+
+    private static String typeParameter(TypeParameterElement parameter) {
+        List<String> bounds = parameter.getBounds().stream().map(TypeMirror::toString)
+                                       .filter(bound -> !bound.equals("java.lang.Object")).toList();
+        return bounds.isEmpty() ? parameter.getSimpleName().toString()
+                : parameter.getSimpleName() + " extends " + String.join(" & ", bounds);
+    }
+}
@@ -0,0 +1,220 @@
+package org.homio.hquery;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CurlDownloaderTest {
+
+    // two segments of MIN_SEGMENT_SIZE and a bit, last one is shorter
+    private static final byte[] CONTENT = new byte[(int) (CurlDownloader.MIN_SEGMENT_SIZE * 2 + 12345)];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    // Range header of every GET, "" if request has no Range
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private volatile boolean acceptRanges = true;
+    private volatile int rangeStatus = 206;
+    private volatile byte[] content = CONTENT;
+    private volatile String etag = "\"v1\"";
+    // called once after next HEAD response
+    private volatile Runnable afterHead;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/file", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void segmentedDownloadMatchesContent() throws IOException {
+        Path target = dir.resolve("file.bin");
+        CurlDownloader.download(url(), target, CurlDownloader.DEFAULT_SEGMENTS, null, "file.bin");
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertEquals(2, ranges.size(), ranges.toString());
+        assertTrue(ranges.stream().allMatch(range -> range.startsWith("bytes=")), ranges.toString());
+    }
+
+    @Test
+    void fullResponseToRangeFallsBackToSingleStream() throws IOException {
+        rangeStatus = 200;
+        Path target = dir.resolve("file.bin");
+        CurlDownloader.download(url(), target, CurlDownloader.DEFAULT_SEGMENTS, null, "file.bin");
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertTrue(ranges.contains(""), ranges.toString());
+    }
+
+    @Test
+    void withoutAcceptRangesDownloadsSingleStream() throws IOException {
+        acceptRanges = false;
+        Path target = dir.resolve("file.bin");
+        CurlDownloader.download(url(), target, CurlDownloader.DEFAULT_SEGMENTS, null, "file.bin");
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertEquals(List.of(""), ranges);
+    }
+
+    @Test
+    void failedSegmentDeletesTarget() {
+        rangeStatus = 500;
+        Path target = dir.resolve("file.bin");
+        assertThrows(IOException.class,
+                () -> CurlDownloader.download(url(), target, CurlDownloader.DEFAULT_SEGMENTS, null, "file.bin"));
+
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void resumesTruncatedPart() throws Exception {
+        Path target = dir.resolve("file.bin");
+        int prefix = CONTENT.length / 3;
+        writePart(target, prefix);
+
+        Curl.DownloadResult result = CurlDownloader.downloadResumable(url(), target, "SHA-256", sha256(CONTENT), null, "file.bin");
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertEquals(prefix, result.resumedFrom());
+        assertEquals(List.of("bytes=" + prefix + "-"), ranges);
+        assertFalse(Files.exists(dir.resolve("file.bin.part.state")));
+    }
+
+    @Test
+    void changedFileRestartsFromStart() throws Exception {
+        Path target = dir.resolve("file.bin");
+        writePart(target, CONTENT.length / 3);
+        // new version is shorter, so size of first HEAD would never be reached
+        byte[] changed = Arrays.copyOf(CONTENT, CONTENT.length / 2);
+        changed[0]++;
+        afterHead = () -> {
+            content = changed;
+            etag = "\"v2\"";
+        };
+
+        Curl.DownloadResult result = CurlDownloader.downloadResumable(url(), target, "SHA-256", sha256(changed), null, "file.bin");
+
+        assertArrayEquals(changed, Files.readAllBytes(target));
+        assertEquals(changed.length, result.size());
+        assertEquals(List.of("bytes=" + CONTENT.length / 3 + "-", ""), ranges);
+    }
+
+    @Test
+    void digestMismatchDeletesPartAndState() throws Exception {
+        Path target = dir.resolve("file.bin");
+        assertThrows(IllegalStateException.class,
+                () -> CurlDownloader.downloadResumable(url(), target, "SHA-256", "00", null, "file.bin"));
+
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(dir.resolve("file.bin.part")));
+        assertFalse(Files.exists(dir.resolve("file.bin.part.state")));
+    }
+
+    // .part with first bytes of CONTENT and state of current server file as left by broken download
+    private void writePart(Path target, int length) throws IOException {
+        Files.write(target.resolveSibling("file.bin.part"), Arrays.copyOf(CONTENT, length));
+        Properties state = new Properties();
+        state.setProperty("url", url().toString());
+        state.setProperty("size", String.valueOf(CONTENT.length));
+        state.setProperty("etag", etag);
+        try (OutputStream stream = Files.newOutputStream(target.resolveSibling("file.bin.part.state"))) {
+            state.store(stream, null);
+        }
+    }
+
+    private static String sha256(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    private URL url() throws IOException {
+        return URI.create("http://%s:%d/file".formatted(server.getAddress().getHostString(), server.getAddress().getPort()))
+                  .toURL();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] data = content;
+            if (acceptRanges) {
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            }
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(data.length));
+                exchange.sendResponseHeaders(200, -1);
+                Runnable action = afterHead;
+                afterHead = null;
+                if (action != null) {
+                    action.run();
+                }
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            ranges.add(range == null ? "" : range);
+            if (range == null || !acceptRanges || rangeStatus == 200 || (ifRange != null && !ifRange.equals(etag))) {
+                write(exchange, data, 200, 0, data.length);
+            } else if (rangeStatus != 206) {
+                exchange.sendResponseHeaders(rangeStatus, -1);
+            } else {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = bounds.length > 1 ? Integer.parseInt(bounds[1]) + 1 : data.length;
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes %d-%d/%d".formatted(start, end - 1, data.length));
+                write(exchange, data, 206, start, end);
+            }
+        }
+    }
+
+    private static void write(HttpExchange exchange, byte[] data, int status, int start, int end) throws IOException {
+        exchange.sendResponseHeaders(status, end - start);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(data, start, end - start);
+        } catch (IOException ignore) {
+            // client dropped connection after it saw status
+        }
+    }
+}
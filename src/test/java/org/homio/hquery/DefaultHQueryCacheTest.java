@@ -0,0 +1,73 @@
+package org.homio.hquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DefaultHQueryCacheTest {
+
+    @Test
+    void evictsLeastRecentlyUsedByCount() {
+        DefaultHQueryCache cache = new DefaultHQueryCache(2, 1000, 0);
+        cache.put(key("a"), "a", 60, 1);
+        cache.put(key("b"), "b", 60, 1);
+        // a is more recently used than b
+        assertEquals("a", cache.get(key("a")));
+
+        cache.put(key("c"), "c", 60, 1);
+
+        assertNull(cache.get(key("b")));
+        assertEquals("a", cache.get(key("a")));
+        assertEquals("c", cache.get(key("c")));
+        assertEquals(1, cache.getStats().evictions());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedByWeight() {
+        DefaultHQueryCache cache = new DefaultHQueryCache(100, 10, 0);
+        cache.put(key("a"), "a", 60, 4);
+        cache.put(key("b"), "b", 60, 4);
+        assertEquals("a", cache.get(key("a")));
+
+        cache.put(key("c"), "c", 60, 4);
+
+        assertNull(cache.get(key("b")));
+        assertEquals(8, cache.getStats().weight());
+        // heavier than whole cache, not stored
+        cache.put(key("d"), "d", 60, 11);
+        assertNull(cache.get(key("d")));
+        assertEquals(2, cache.getStats().size());
+    }
+
+    @Test
+    void staleValueIsReturnedByLookupOnly() throws InterruptedException {
+        DefaultHQueryCache cache = new DefaultHQueryCache(100, 1000, 0);
+        cache.put(key("fresh"), "fresh", 1, 0, 1);
+        cache.put(key("stale"), "stale", 1, 2, 1);
+        HQueryCache.Lookup lookup = cache.lookup(key("stale"));
+        assertNotNull(lookup);
+        assertTrue(lookup.expireAt() > System.currentTimeMillis());
+
+        Thread.sleep(1100);
+
+        assertNull(cache.get(key("fresh")));
+        assertNull(cache.lookup(key("fresh")));
+        assertNull(cache.get(key("stale")));
+        lookup = cache.lookup(key("stale"));
+        assertNotNull(lookup);
+        assertEquals("stale", lookup.value());
+        assertTrue(lookup.expireAt() <= System.currentTimeMillis());
+
+        Thread.sleep(2000);
+
+        assertNull(cache.lookup(key("stale")));
+        assertEquals(0, cache.getStats().size());
+    }
+
+    private static HQueryCache.Key key(String command) {
+        return new HQueryCache.Key("hardware", command, "", "linux");
+    }
+}
@@ -0,0 +1,120 @@
+package org.homio.hquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class HQueryShellPoolTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<HQueryShellPool> pools = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void close() {
+        pools.forEach(HQueryShellPool::close);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void sentinelLikeOutputIsPassedToConsumer() throws Exception {
+        HQueryShellPool pool = pool(1, 100);
+        List<String> inputs = new CopyOnWriteArrayList<>();
+
+        int retValue = execute(pool, "printf '__hquery_0123_1:0\\nnext\\nlast'", inputs);
+
+        assertEquals(0, retValue);
+        assertEquals(List.of("__hquery_0123_1:0", "next", "last"), inputs);
+    }
+
+    @Test
+    void commandReadingStdinDoesNotConsumeShellInput() throws Exception {
+        HQueryShellPool pool = pool(1, 100);
+        List<String> first = new CopyOnWriteArrayList<>();
+        List<String> second = new CopyOnWriteArrayList<>();
+
+        assertEquals(3, execute(pool, "cat; echo $$; exit 3", first));
+        assertEquals(0, execute(pool, "echo $$", second));
+
+        // same shell executed both commands
+        assertEquals(first, second);
+    }
+
+    @Test
+    void timeoutDiscardsShell() throws Exception {
+        HQueryShellPool pool = pool(1, 100);
+        List<String> before = new CopyOnWriteArrayList<>();
+        execute(pool, "echo $$", before);
+        long pid = Long.parseLong(before.get(0));
+
+        CompletableFuture<Integer> timedOut = pool.execute("sleep 30", "", 1, line -> {
+        }, line -> {
+        });
+        assertNotNull(timedOut);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> timedOut.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, ex.getCause());
+
+        List<String> after = new CopyOnWriteArrayList<>();
+        execute(pool, "echo $$", after);
+        assertNotEquals(before, after);
+        ProcessHandle.of(pid).ifPresent(shell -> assertTrue(shell.onExit().completeOnTimeout(null, 5, TimeUnit.SECONDS)
+                                                                 .join() != null, "shell " + pid + " is alive"));
+    }
+
+    @Test
+    void shellIsRecycledAfterMaxCommands() throws Exception {
+        HQueryShellPool pool = pool(1, 2);
+        List<String> pids = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            execute(pool, "echo $$", pids);
+        }
+
+        assertEquals(pids.get(0), pids.get(1));
+        assertNotEquals(pids.get(1), pids.get(2));
+    }
+
+    @Test
+    void busyPoolReturnsNull() throws Exception {
+        HQueryShellPool pool = pool(1, 100);
+        CompletableFuture<Integer> running = pool.execute("sleep 1", "", 10, line -> {
+        }, line -> {
+        });
+        assertNotNull(running);
+
+        assertNull(pool.execute("true", "", 10, line -> {
+        }, line -> {
+        }));
+        assertEquals(0, running.get(10, TimeUnit.SECONDS));
+    }
+
+    private HQueryShellPool pool(int maxShells, int maxCommands) {
+        HQueryShellPool pool = new HQueryShellPool(maxShells, maxCommands, executor);
+        pools.add(pool);
+        return pool;
+    }
+
+    private static int execute(HQueryShellPool pool, String command, List<String> inputs) throws Exception {
+        CompletableFuture<Integer> result = pool.execute(command, "", 10, inputs::add, line -> {
+        });
+        assertNotNull(result);
+        // returned future completes after shell is back in idle queue
+        return result.get(10, TimeUnit.SECONDS);
+    }
+}
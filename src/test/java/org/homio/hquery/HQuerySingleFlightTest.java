@@ -0,0 +1,51 @@
+package org.homio.hquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class HQuerySingleFlightTest {
+
+    private final HQuerySingleFlight<String, String> singleFlight = new HQuerySingleFlight<>();
+
+    @Test
+    void joinersGetResultOfRunningExecution() {
+        AtomicInteger executions = new AtomicInteger();
+        CompletableFuture<String> execution = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("key", () -> {
+            executions.incrementAndGet();
+            return execution;
+        });
+        CompletableFuture<String> second = singleFlight.execute("key", () -> {
+            executions.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+
+        execution.complete("result");
+
+        assertSame(first, second);
+        assertEquals("result", second.join());
+        assertEquals(1, executions.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void keyIsReleasedAfterFailure() {
+        CompletableFuture<String> failed = singleFlight.execute("key",
+                () -> CompletableFuture.failedFuture(new IllegalStateException("failed")));
+        assertThrows(CompletionException.class, failed::join);
+        assertEquals(0, singleFlight.size());
+
+        assertThrows(CompletionException.class, singleFlight.execute("key", () -> {
+            throw new IllegalStateException("supplier failed");
+        })::join);
+        assertEquals(0, singleFlight.size());
+
+        assertEquals("next", singleFlight.execute("key", () -> CompletableFuture.completedFuture("next")).join());
+    }
+}
@@ -0,0 +1,48 @@
+package org.homio.hquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+// snapshot requires boot id
+@EnabledOnOs(OS.LINUX)
+class HQuerySnapshotTest {
+
+    private static final HQueryLogger LOGGER = new HQueryLogger() {
+        @Override
+        public void info(String message) {
+        }
+
+        @Override
+        public void error(String message) {
+            System.err.println(message);
+        }
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesInCallerThreadAfterExecutorShutdown() {
+        Path file = dir.resolve("snapshot.bin");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        HQuerySnapshot snapshot = HQuerySnapshot.load(file, executor, LOGGER);
+        assertNotNull(snapshot);
+        HQueryCache.Key key = new HQueryCache.Key("hardware", "echo value", "", "linux");
+
+        snapshot.record(key, List.of("value"), 0, 60);
+
+        HQuerySnapshot loaded = HQuerySnapshot.load(file, Runnable::run, LOGGER);
+        assertNotNull(loaded);
+        assertEquals(List.of("value"), loaded.getEntries().get(key).inputs());
+    }
+}
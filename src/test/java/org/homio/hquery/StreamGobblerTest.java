@@ -0,0 +1,70 @@
+package org.homio.hquery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class StreamGobblerTest {
+
+    private final List<String> inputs = new CopyOnWriteArrayList<>();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    @Test
+    void drainsOutputOfSlowConsumerAfterProcessExit() throws Exception {
+        StreamGobbler gobbler = slowConsumer();
+
+        gobbler.stopStream(StreamGobbler.DRAIN_TIMEOUT_MS, 500);
+
+        assertEquals(2000, inputs.size());
+        assertEquals("2000", inputs.get(1999));
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void forceCloseReportsNoError() throws Exception {
+        // pipe is still open when streams are closed: writer is blocked until consumer resumes
+        Process process = new ProcessBuilder("/bin/sh", "-c", "seq 1 200000").start();
+        StreamGobbler gobbler = new StreamGobbler("test", line -> {
+            if (inputs.isEmpty()) {
+                sleep(800);
+            }
+            inputs.add(line);
+        }, errors::add);
+        gobbler.stream(process);
+
+        gobbler.stopStream(300, 2000);
+
+        assertTrue(inputs.size() < 200000);
+        // reader reports errors as line of its stream
+        assertTrue(inputs.stream().noneMatch(line -> line.contains("got error")), inputs.get(inputs.size() - 1));
+        assertEquals(List.of(), errors);
+        process.destroy();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // process exits at once, consumer needs about 2 sec for its output
+    private StreamGobbler slowConsumer() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("/bin/sh", "-c", "seq 1 2000").start();
+        StreamGobbler gobbler = new StreamGobbler("test", line -> {
+            sleep(1);
+            inputs.add(line);
+        }, errors::add);
+        gobbler.stream(process);
+        process.waitFor();
+        return gobbler;
+    }
+}
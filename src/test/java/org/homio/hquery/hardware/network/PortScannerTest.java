@@ -0,0 +1,187 @@
+package org.homio.hquery.hardware.network;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.homio.hquery.hardware.network.NetworkHardwareRepository.CidrAddress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+// binds 127.0.x.y addresses and reads connects in progress from /proc/net/tcp
+@EnabledOnOs(OS.LINUX)
+class PortScannerTest {
+
+    private final List<Closeable> sockets = new ArrayList<>();
+
+    @AfterEach
+    void close() throws IOException {
+        for (Closeable socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    void rangeEndIsExclusive() {
+        assertEquals(addresses("192.168.1.10", "192.168.1.11", "192.168.1.12"), PortScanner.parseRange("192.168.1.10-13"));
+    }
+
+    @Test
+    void cidrExcludesNetworkAndBroadcast() {
+        List<InetAddress> addresses = PortScanner.parseRange("192.168.1.77/24");
+        assertEquals(254, addresses.size());
+        assertEquals(address("192.168.1.1"), addresses.get(0));
+        assertEquals(address("192.168.1.254"), addresses.get(253));
+    }
+
+    @Test
+    void pointToPointCidrIncludesAllAddresses() {
+        assertEquals(addresses("10.0.0.4", "10.0.0.5"), PortScanner.addresses(new CidrAddress(address("10.0.0.5"), (short) 31)));
+        assertEquals(addresses("10.0.0.5"), PortScanner.addresses(new CidrAddress(address("10.0.0.5"), (short) 32)));
+    }
+
+    @Test
+    void rejectsNetworksLargerThanSlash16() {
+        assertEquals(65534, PortScanner.parseRange("10.1.2.3/16").size());
+        assertThrows(IllegalArgumentException.class, () -> PortScanner.parseRange("10.1.2.3/15"));
+        assertThrows(IllegalArgumentException.class, () -> PortScanner.addresses(new CidrAddress(address("10.1.2.3"), (short) 8)));
+    }
+
+    @Test
+    void reportsExactOpenAddressPorts() throws IOException {
+        int port = listen("127.0.0.2", 0, 50);
+        listen("127.0.0.3", port, 50);
+        int otherPort = listen("127.0.0.3", 0, 50);
+
+        Set<String> hits = ConcurrentHashMap.newKeySet();
+        int found = PortScanner.scan(PortScanner.parseRange("127.0.0.1-5"), List.of(port, otherPort), 1000,
+                PortScanner.DEFAULT_CONCURRENCY, (ip, open) -> hits.add(ip + ":" + open));
+
+        assertEquals(Set.of("127.0.0.2:" + port, "127.0.0.3:" + port, "127.0.0.3:" + otherPort), hits);
+        assertEquals(3, found);
+    }
+
+    @Test
+    void concurrencyLimitsConnectsInFlight() throws IOException {
+        // listeners with full backlog drop SYN, so every connect lasts till timeout
+        List<InetAddress> addresses = new ArrayList<>();
+        int port = 0;
+        for (int i = 1; i <= 8; i++) {
+            port = listen("127.0.1." + i, port, 1);
+            for (int k = 0; k < 3; k++) {
+                Socket filler = new Socket();
+                sockets.add(filler);
+                try {
+                    filler.connect(new InetSocketAddress("127.0.1." + i, port), 200);
+                } catch (IOException ignore) {
+                }
+            }
+            addresses.add(address("127.0.1." + i));
+        }
+
+        int windowed = peakConnects(addresses, port, 2);
+        int parallel = peakConnects(addresses, port, 8);
+
+        assertTrue(windowed >= 1 && windowed <= 2, "windowed scan had " + windowed + " connects in flight");
+        assertTrue(parallel > 2, "parallel scan had " + parallel + " connects in flight");
+    }
+
+    /**
+     * @return max number of connects to addresses in progress at same time, sampled from /proc/net/tcp while scan runs
+     */
+    private static int peakConnects(List<InetAddress> addresses, int port, int concurrency) throws IOException {
+        Set<String> targets = new HashSet<>();
+        for (InetAddress address : addresses) {
+            byte[] bytes = address.getAddress();
+            // little-endian address and big-endian port in hex, dual stack sockets are listed as IPv4-mapped in tcp6
+            String target = "%02X%02X%02X%02X:%04X".formatted(bytes[3], bytes[2], bytes[1], bytes[0], port);
+            targets.add(target);
+            targets.add("0000000000000000FFFF0000" + target);
+        }
+        AtomicInteger peak = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread sampler = Thread.ofPlatform().start(() -> {
+            while (running.get()) {
+                peak.accumulateAndGet(countConnecting(targets), Math::max);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+            }
+        });
+        try {
+            // 8 attempts of 300ms each
+            assertEquals(0, PortScanner.scan(addresses, List.of(port), 300, concurrency, (ip, open) -> {
+            }));
+        } finally {
+            running.set(false);
+        }
+        try {
+            sampler.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return peak.get();
+    }
+
+    private static int countConnecting(Set<String> targets) {
+        int count = 0;
+        for (String table : List.of("/proc/net/tcp", "/proc/net/tcp6")) {
+            try {
+                for (String line : Files.readAllLines(Path.of(table))) {
+                    String[] fields = line.trim().split("\\s+");
+                    // rem_address and st columns, 02 is SYN_SENT
+                    if (fields.length > 3 && targets.contains(fields[2]) && fields[3].equals("02")) {
+                        count++;
+                    }
+                }
+            } catch (NoSuchFileException ignore) {
+                // IPv6 disabled
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return count;
+    }
+
+    private int listen(String address, int port, int backlog) throws IOException {
+        ServerSocket server = new ServerSocket();
+        sockets.add(server);
+        server.bind(new InetSocketAddress(address, port), backlog);
+        return server.getLocalPort();
+    }
+
+    private static List<InetAddress> addresses(String... addresses) {
+        List<InetAddress> result = new ArrayList<>();
+        for (String address : addresses) {
+            result.add(address(address));
+        }
+        return result;
+    }
+
+    private static InetAddress address(String address) {
+        try {
+            return InetAddress.getByName(address);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.homio.hquery.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.homio.hquery.HQueryMetrics.Query;
+import org.junit.jupiter.api.Test;
+
+class MicrometerHQueryMetricsTest {
+
+    private static final Query QUERY = new Query("repository", "method", "query");
+
+    @Test
+    void inFlightStartedBeforeBindIsCounted() {
+        MicrometerHQueryMetrics metrics = new MicrometerHQueryMetrics();
+        metrics.recordInFlight(QUERY, 1);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+        assertEquals(1, inFlight(registry));
+
+        metrics.recordInFlight(QUERY, -1);
+        assertEquals(0, inFlight(registry));
+    }
+
+    @Test
+    void rebindKeepsInFlight() {
+        MicrometerHQueryMetrics metrics = new MicrometerHQueryMetrics();
+        MeterRegistry first = new SimpleMeterRegistry();
+        metrics.bindTo(first);
+        metrics.recordInFlight(QUERY, 1);
+
+        MeterRegistry second = new SimpleMeterRegistry();
+        metrics.bindTo(second);
+        metrics.recordInFlight(QUERY, 1);
+
+        assertEquals(2, inFlight(second));
+        // gauge of old registry reads same state
+        assertEquals(2, inFlight(first));
+    }
+
+    private static double inFlight(MeterRegistry registry) {
+        return registry.get("hquery.inflight").tag("query", "query").gauge().value();
+    }
+}
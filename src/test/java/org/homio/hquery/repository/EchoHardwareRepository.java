@@ -0,0 +1,16 @@
+package org.homio.hquery.repository;
+
+import org.homio.hquery.ProgressBar;
+import org.homio.hquery.api.HQueryParam;
+import org.homio.hquery.api.HardwareQuery;
+import org.homio.hquery.api.HardwareRepository;
+
+@HardwareRepository
+public interface EchoHardwareRepository {
+
+    @HardwareQuery(name = "Echo", value = "echo :value")
+    String echo(@HQueryParam("value") String value, ProgressBar progressBar);
+
+    @HardwareQuery(name = "Cached echo", value = "echo :value", cacheValid = 3600)
+    String cachedEcho(@HQueryParam("value") String value);
+}
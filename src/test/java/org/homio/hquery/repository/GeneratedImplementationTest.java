@@ -0,0 +1,40 @@
+package org.homio.hquery.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.apache.commons.lang3.SystemUtils;
+import org.homio.hquery.HQueryCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+class GeneratedImplementationTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void defaultMethodWithInvalidatesCacheEvictsFileQuery() throws Exception {
+        Path settings = dir.resolve("settings.conf");
+        Files.writeString(settings, "first");
+        try (AnnotationConfigApplicationContext context = TestHQueryContext.create(Map.of("test.settings", settings.toString()))) {
+            SettingsHardwareRepository repository = context.getBean(SettingsHardwareRepository.class);
+            HQueryCache cache = context.getBean(HQueryCache.class);
+            HQueryCache.Key key = new HQueryCache.Key("file", settings.toString(), "", SystemUtils.OS_NAME);
+            assertTrue(repository.getClass().getName().endsWith("HQueryImpl"), repository.getClass().getName());
+
+            assertEquals("first", repository.getSettings());
+            assertNotNull(cache.get(key));
+
+            repository.setSettings(settings.toString(), "second");
+            assertNull(cache.get(key));
+            assertEquals("second", repository.getSettings());
+        }
+    }
+}
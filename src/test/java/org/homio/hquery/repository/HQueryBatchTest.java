@@ -0,0 +1,40 @@
+package org.homio.hquery.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.homio.hquery.HQueryBatch;
+import org.homio.hquery.ProgressBar;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class HQueryBatchTest {
+
+    @Test
+    void outputGoesToProgressBarOfQuery() {
+        try (AnnotationConfigApplicationContext context = TestHQueryContext.create(Map.of())) {
+            EchoHardwareRepository repository = context.getBean(EchoHardwareRepository.class);
+            List<String> first = new CopyOnWriteArrayList<>();
+            List<String> second = new CopyOnWriteArrayList<>();
+
+            HQueryBatch<EchoHardwareRepository> batch = HQueryBatch.of(repository);
+            HQueryBatch.Result<String> one = batch.add(repo -> repo.echo("one", progressBar(first)));
+            HQueryBatch.Result<String> two = batch.add(repo -> repo.echo("two", progressBar(second)));
+            batch.execute();
+
+            assertEquals("one", one.get());
+            assertEquals("two", two.get());
+            assertEquals(List.of("Execute: 'Echo'. Command: 'echo one'", "one"), first);
+            assertEquals(List.of("Execute: 'Echo'. Command: 'echo two'", "two"), second);
+        }
+    }
+
+    private static ProgressBar progressBar(List<String> messages) {
+        return (progress, message, error) -> messages.add(message);
+    }
+}
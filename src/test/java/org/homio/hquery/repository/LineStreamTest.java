@@ -0,0 +1,154 @@
+package org.homio.hquery.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.homio.hquery.api.HardwareException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+@EnabledOnOs(OS.LINUX)
+class LineStreamTest {
+
+    @TempDir
+    Path dir;
+
+    private AnnotationConfigApplicationContext context;
+    private StreamHardwareRepository repository;
+
+    @BeforeEach
+    void start() {
+        context = TestHQueryContext.create(Map.of());
+        repository = context.getBean(StreamHardwareRepository.class);
+    }
+
+    @AfterEach
+    void stop() {
+        context.close();
+    }
+
+    @Test
+    void cancelAfterFirstItemKillsProcess() throws Exception {
+        Path pid = dir.resolve("pid");
+        TestSubscriber subscriber = new TestSubscriber(1, true);
+        repository.publisher("echo $$ > " + pid + "; exec yes", 60).subscribe(subscriber);
+
+        assertTrue(subscriber.items.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("y"), subscriber.received);
+        assertProcessExits(pid);
+        assertFalse(subscriber.done.isDone());
+    }
+
+    @Test
+    void nonPositiveRequestSignalsError() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(0, false);
+        repository.publisher("echo first", 60).subscribe(subscriber);
+
+        assertInstanceOf(IllegalArgumentException.class, subscriber.done.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(), subscriber.received);
+    }
+
+    @Test
+    void nonZeroExitReachesSubscriber() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE, false);
+        repository.publisher("echo first; echo failed >&2; exit 3", 60).subscribe(subscriber);
+
+        assertInstanceOf(HardwareException.class, subscriber.done.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first"), subscriber.received);
+    }
+
+    @Test
+    void nonZeroExitThrowsFromStream() {
+        try (Stream<String> stream = repository.stream("echo first; echo failed >&2; exit 3", 60)) {
+            Iterator<String> iterator = stream.iterator();
+            assertEquals("first", iterator.next());
+            assertThrows(HardwareException.class, iterator::hasNext);
+        }
+    }
+
+    @Test
+    void closeKillsProcessThatIgnoresTerm() throws Exception {
+        Path pid = dir.resolve("pid");
+        Stream<String> stream = repository.stream("trap '' TERM; echo $$ > " + pid + "; echo first; while :; do sleep 1; done", 60);
+        Iterator<String> iterator = stream.iterator();
+        assertEquals("first", iterator.next());
+        // consumer is blocked in readLine() while stream is closed from other thread
+        CompletableFuture<Boolean> consumer = CompletableFuture.supplyAsync(iterator::hasNext);
+        Thread.sleep(200);
+
+        CompletableFuture.runAsync(stream::close).get(1, TimeUnit.SECONDS);
+
+        assertProcessExits(pid);
+        assertFalse(consumer.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void assertProcessExits(Path pidFile) throws Exception {
+        long pid = Long.parseLong(Files.readString(pidFile).trim());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+            assertTrue(System.nanoTime() < deadline, "process " + pid + " is still alive");
+            Thread.sleep(50);
+        }
+    }
+
+    private static final class TestSubscriber implements Flow.Subscriber<String> {
+
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        // completes with null on onComplete or with error of onError
+        private final CompletableFuture<Throwable> done = new CompletableFuture<>();
+        private final CountDownLatch items;
+        private final long request;
+        private final boolean cancelOnItem;
+        private Flow.Subscription subscription;
+
+        private TestSubscriber(long request, boolean cancelOnItem) {
+            this.request = request;
+            this.cancelOnItem = cancelOnItem;
+            this.items = new CountDownLatch((int) Math.min(request, 1));
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(request);
+        }
+
+        @Override
+        public void onNext(String item) {
+            received.add(item);
+            if (cancelOnItem) {
+                subscription.cancel();
+            }
+            items.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.homio.hquery.repository;
+
+import org.homio.hquery.api.HQueryParam;
+import org.homio.hquery.api.HardwareQuery;
+import org.homio.hquery.api.HardwareRepository;
+
+@HardwareRepository
+public interface RefreshHardwareRepository {
+
+    // every read of cached result refreshes it. Refresh is slow while ${test.block} file exists
+    @HardwareQuery(name = "Refreshed echo", value = "echo :value >> ${test.log}; [ -f ${test.block} ] && sleep 1; echo :value",
+            cacheValid = 3600, refreshAhead = 3600)
+    String refreshedEcho(@HQueryParam("value") String value);
+}
@@ -0,0 +1,64 @@
+package org.homio.hquery.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+@EnabledOnOs(OS.LINUX)
+class RefreshRejectionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rejectedRefreshReturnsCachedResult() throws Exception {
+        Path log = dir.resolve("log");
+        Path block = dir.resolve("block");
+        Map<String, Object> properties = Map.of(
+                "test.log", log.toString(),
+                "test.block", block.toString(),
+                "hquery.cache.refresh-threads", 1,
+                "hquery.cache.refresh-queue", 1);
+        try (AnnotationConfigApplicationContext context = TestHQueryContext.create(properties)) {
+            RefreshHardwareRepository repository = context.getBean(RefreshHardwareRepository.class);
+            for (String value : List.of("a", "b", "c")) {
+                assertEquals(value, repository.refreshedEcho(value));
+            }
+            Files.createFile(block);
+
+            // refresh of a blocks the only refresh thread, b is queued and c is rejected
+            long start = System.nanoTime();
+            assertEquals("a", repository.refreshedEcho("a"));
+            waitForLog(log, 4);
+            assertEquals("b", repository.refreshedEcho("b"));
+            assertEquals("c", repository.refreshedEcho("c"));
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(millis < 900, "cached reads took " + millis + "ms");
+
+            // rejected key is refreshed on next read
+            Files.delete(block);
+            waitForLog(log, 5);
+            assertEquals("c", repository.refreshedEcho("c"));
+            waitForLog(log, 6);
+            assertEquals(List.of("a", "b", "c", "a", "b", "c"), Files.readAllLines(log));
+        }
+    }
+
+    private static void waitForLog(Path log, int lines) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (Files.readAllLines(log).size() < lines) {
+            assertTrue(System.nanoTime() < deadline, "log: " + Files.readAllLines(log));
+            Thread.sleep(50);
+        }
+    }
+}
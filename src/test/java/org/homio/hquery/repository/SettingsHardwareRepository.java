@@ -0,0 +1,21 @@
+package org.homio.hquery.repository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import lombok.SneakyThrows;
+import org.homio.hquery.api.FileQuery;
+import org.homio.hquery.api.HardwareRepository;
+import org.homio.hquery.api.InvalidatesCache;
+
+@HardwareRepository
+public interface SettingsHardwareRepository {
+
+    @FileQuery(name = "getSettings", value = "${test.settings}", cacheValid = 3600)
+    String getSettings();
+
+    @SneakyThrows
+    @InvalidatesCache(files = "${test.settings}")
+    default void setSettings(String path, String value) {
+        Files.writeString(Path.of(path), value);
+    }
+}
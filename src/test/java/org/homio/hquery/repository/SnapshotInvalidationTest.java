@@ -0,0 +1,46 @@
+package org.homio.hquery.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.Map;
+import org.apache.commons.lang3.SystemUtils;
+import org.homio.hquery.HQueryCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+// snapshot requires boot id
+@EnabledOnOs(OS.LINUX)
+class SnapshotInvalidationTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void invalidatedResultIsNotLoadedAfterRestart() {
+        Map<String, Object> properties = Map.of(
+                "hquery.snapshot.file", dir.resolve("snapshot.bin").toString(),
+                "hquery.snapshot.min-ttl", 60);
+        try (AnnotationConfigApplicationContext context = TestHQueryContext.create(properties)) {
+            EchoHardwareRepository repository = context.getBean(EchoHardwareRepository.class);
+            assertEquals("kept", repository.cachedEcho("kept"));
+            assertEquals("dropped", repository.cachedEcho("dropped"));
+            context.getBean(HQueryCache.class).invalidate(key("dropped"));
+        }
+
+        try (AnnotationConfigApplicationContext context = TestHQueryContext.create(properties)) {
+            HQueryCache cache = context.getBean(HQueryCache.class);
+            assertNotNull(cache.get(key("kept")));
+            assertNull(cache.get(key("dropped")));
+        }
+    }
+
+    private static HQueryCache.Key key(String value) {
+        return new HQueryCache.Key("hardware", "echo " + value, "", SystemUtils.OS_NAME);
+    }
+}
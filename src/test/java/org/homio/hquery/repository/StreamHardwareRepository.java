@@ -0,0 +1,18 @@
+package org.homio.hquery.repository;
+
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import org.homio.hquery.api.HQueryMaxWaitTimeout;
+import org.homio.hquery.api.HQueryParam;
+import org.homio.hquery.api.HardwareQuery;
+import org.homio.hquery.api.HardwareRepository;
+
+@HardwareRepository
+public interface StreamHardwareRepository {
+
+    @HardwareQuery(name = "Stream lines", value = ":command")
+    Stream<String> stream(@HQueryParam("command") String command, @HQueryMaxWaitTimeout int maxSecondsTimeout);
+
+    @HardwareQuery(name = "Publish lines", value = ":command")
+    Flow.Publisher<String> publisher(@HQueryParam("command") String command, @HQueryMaxWaitTimeout int maxSecondsTimeout);
+}
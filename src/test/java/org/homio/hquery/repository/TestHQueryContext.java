@@ -0,0 +1,50 @@
+package org.homio.hquery.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.homio.hquery.EnableHQuery;
+import org.homio.hquery.HQueryLogger;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.MapPropertySource;
+
+/**
+ * Context with repositories of this package and default cache. Snapshot is disabled and curl cache is kept in memory
+ * unless properties set them, so tests do not touch home directory.
+ */
+final class TestHQueryContext {
+
+    private TestHQueryContext() {
+    }
+
+    static AnnotationConfigApplicationContext create(Map<String, Object> properties) {
+        Map<String, Object> values = new HashMap<>(properties);
+        values.putIfAbsent("hquery.snapshot.file", "");
+        values.putIfAbsent("hquery.curl-cache.dir", "");
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", values));
+        context.register(TestConfiguration.class);
+        context.refresh();
+        return context;
+    }
+
+    @Configuration
+    @EnableHQuery(scanBaseClassesPackage = "org.homio.hquery.repository")
+    static class TestConfiguration {
+
+        @Bean
+        public HQueryLogger hQueryLogger() {
+            return new HQueryLogger() {
+                @Override
+                public void info(String message) {
+                }
+
+                @Override
+                public void error(String message) {
+                    System.err.println(message);
+                }
+            };
+        }
+    }
+}